@@ -10,6 +10,7 @@ import android.content.Context;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -43,6 +44,43 @@ public class PureeConfigurationTest {
         assertThat(sourceOutputMap.size(), is(0));
     }
 
+    @Test
+    public void executorLanes() {
+        Context context = ApplicationProvider.getApplicationContext();
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(pureeSerializer)
+                .executorLanes(2)
+                .build()
+                .createPureeLogger();
+
+        ScheduledExecutorService fooLane = logger.getExecutor("out_foo");
+        ScheduledExecutorService barLane = logger.getExecutor("out_bar");
+        assertThat(barLane, is(not(sameInstance(fooLane))));
+        assertThat(logger.getExecutor("out_foo"), is(sameInstance(fooLane)));
+    }
+
+    @Test
+    public void shareRateLimiterOfSources() {
+        Context context = ApplicationProvider.getApplicationContext();
+        PureeConfiguration conf = new PureeConfiguration.Builder(context)
+                .pureeSerializer(pureeSerializer)
+                .source(FooLog.class).rateLimit(10, 5).to(new OutFoo())
+                .source(FooLog.class).rateLimit(10, 5).to(new OutBar())
+                .source(FooLog.class).to(new OutBar())
+                .build();
+
+        assertThat(conf.getRateLimiterMap().size(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectConflictingRateLimits() {
+        Context context = ApplicationProvider.getApplicationContext();
+        new PureeConfiguration.Builder(context)
+                .pureeSerializer(pureeSerializer)
+                .source(FooLog.class).rateLimit(10, 5).to(new OutFoo())
+                .source(FooLog.class).rateLimit(1, 5).to(new OutBar());
+    }
+
     @Test
     public void build() {
         Context context = ApplicationProvider.getApplicationContext();
@@ -0,0 +1,309 @@
+package com.cookpad.puree;
+
+import com.cookpad.puree.outputs.OutputConfiguration;
+import com.cookpad.puree.outputs.PureeOutput;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@RunWith(AndroidJUnit4.class)
+public class PureeLoggerTest {
+
+    static class PvLog {
+
+        @Override
+        public String toString() {
+            return "{\"name\":\"pv\"}";
+        }
+    }
+
+    interface AnalyticsEvent {
+    }
+
+    static class ClickEvent implements AnalyticsEvent {
+
+        @Override
+        public String toString() {
+            return "{\"name\":\"click\"}";
+        }
+    }
+
+    static class CountingSerializer implements PureeSerializer {
+
+        int count = 0;
+
+        @Override
+        public String serialize(Object log) {
+            count++;
+            return log.toString();
+        }
+    }
+
+    static class OutCollect extends PureeOutput {
+
+        final List<String> received = new ArrayList<>();
+
+        @Nonnull
+        @Override
+        public String type() {
+            return "out_collect";
+        }
+
+        @Nonnull
+        @Override
+        public OutputConfiguration configure(OutputConfiguration conf) {
+            return conf;
+        }
+
+        @Override
+        public void emit(String jsonLog) {
+            received.add(jsonLog);
+        }
+    }
+
+    static class OutCounting extends OutCollect {
+
+        int initializeCount = 0;
+
+        int flushCount = 0;
+
+        @Override
+        public void initialize(PureeLogger logger) {
+            super.initialize(logger);
+            initializeCount++;
+        }
+
+        @Override
+        public void flush() {
+            flushCount++;
+        }
+    }
+
+    @Test
+    public void serializeOncePerSend() {
+        Context context = ApplicationProvider.getApplicationContext();
+        CountingSerializer serializer = new CountingSerializer();
+        OutCollect output1 = new OutCollect();
+        OutCollect output2 = new OutCollect();
+        OutCollect output3 = new OutCollect();
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(serializer)
+                .register(PvLog.class, output1)
+                .register(PvLog.class, output2)
+                .register(PvLog.class, output3)
+                .build()
+                .createPureeLogger();
+
+        logger.send(new PvLog());
+
+        assertThat(serializer.count, is(1));
+        assertThat(output1.received.size(), is(1));
+        assertThat(output2.received.get(0), is(sameInstance(output1.received.get(0))));
+        assertThat(output3.received.get(0), is(sameInstance(output1.received.get(0))));
+    }
+
+    @Test
+    public void applyLogFiltersBeforeSerialization() {
+        Context context = ApplicationProvider.getApplicationContext();
+        CountingSerializer serializer = new CountingSerializer();
+        OutCollect output = new OutCollect();
+        final List<PvLog> filtered = new ArrayList<>();
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(serializer)
+                .source(PvLog.class)
+                .logFilter(new PureeLogFilter<PvLog>() {
+                    @Override
+                    public PvLog apply(PvLog log) {
+                        filtered.add(log);
+                        return filtered.size() % 2 == 0 ? null : log;
+                    }
+                })
+                .to(output)
+                .build()
+                .createPureeLogger();
+
+        logger.send(new PvLog());
+        logger.send(new PvLog());
+        logger.send(new PvLog());
+
+        assertThat(filtered.size(), is(3));
+        assertThat(serializer.count, is(2));
+        assertThat(output.received.size(), is(2));
+    }
+
+    @Test
+    public void applyLogFilterOnceForEverySource() {
+        Context context = ApplicationProvider.getApplicationContext();
+        OutCollect output1 = new OutCollect();
+        OutCollect output2 = new OutCollect();
+        final List<PvLog> filtered = new ArrayList<>();
+        PureeLogFilter<PvLog> logFilter = new PureeLogFilter<PvLog>() {
+            @Override
+            public PvLog apply(PvLog log) {
+                filtered.add(log);
+                return log;
+            }
+        };
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(new CountingSerializer())
+                .source(PvLog.class).logFilter(logFilter).to(output1)
+                .source(PvLog.class).logFilter(logFilter).to(output2)
+                .build()
+                .createPureeLogger();
+
+        logger.send(new PvLog());
+
+        assertThat(filtered.size(), is(1));
+        assertThat(output1.received.size(), is(1));
+        assertThat(output2.received.size(), is(1));
+    }
+
+    @Test
+    public void rateLimitBeforeRouting() {
+        Context context = ApplicationProvider.getApplicationContext();
+        CountingSerializer serializer = new CountingSerializer();
+        OutCollect output = new OutCollect();
+        OutCollect summaryOutput = new OutCollect();
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(serializer)
+                .source(PvLog.class).rateLimit(0.001, 2).to(output)
+                .source(RateLimitSummaryLog.class).to(summaryOutput)
+                .rateLimitSummaryInterval(0)
+                .build()
+                .createPureeLogger();
+
+        for (int i = 0; i < 5; i++) {
+            logger.send(new PvLog());
+        }
+        assertThat(serializer.count, is(2));
+        assertThat(output.received.size(), is(2));
+
+        logger.sendRateLimitSummaries();
+        assertThat(summaryOutput.received, contains(
+                "{\"logClass\":\"" + PvLog.class.getName() + "\",\"admitted\":2,\"dropped\":3}"));
+    }
+
+    @Test
+    public void routeBySupertype() {
+        Context context = ApplicationProvider.getApplicationContext();
+        OutCollect eventOutput = new OutCollect();
+        OutCollect clickOutput = new OutCollect();
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(new CountingSerializer())
+                .register(AnalyticsEvent.class, eventOutput)
+                .register(ClickEvent.class, clickOutput)
+                .register(Object.class, eventOutput)
+                .build()
+                .createPureeLogger();
+
+        logger.send(new ClickEvent());
+
+        assertThat(logger.getRegisteredOutputPlugins(ClickEvent.class),
+                is(Arrays.<PureeOutput>asList(clickOutput, eventOutput)));
+        assertThat(eventOutput.received, contains("{\"name\":\"click\"}"));
+        assertThat(clickOutput.received, contains("{\"name\":\"click\"}"));
+    }
+
+    @Test
+    public void ignoreLogsWithoutOutput() {
+        Context context = ApplicationProvider.getApplicationContext();
+        CountingSerializer serializer = new CountingSerializer();
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(serializer)
+                .register(ClickEvent.class, new OutCollect())
+                .build()
+                .createPureeLogger();
+
+        logger.send(new PvLog());
+
+        assertThat(serializer.count, is(0));
+        assertThat(logger.getRegisteredOutputPlugins(PvLog.class).isEmpty(), is(true));
+    }
+
+    @Test
+    public void addAndRemoveOutputsAtRuntime() {
+        Context context = ApplicationProvider.getApplicationContext();
+        OutCollect output1 = new OutCollect();
+        OutCollect output2 = new OutCollect();
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(new CountingSerializer())
+                .register(PvLog.class, output1)
+                .build()
+                .createPureeLogger();
+
+        logger.addOutput(AnalyticsEvent.class, output2);
+        logger.send(new PvLog());
+        logger.send(new ClickEvent());
+        assertThat(output1.received.size(), is(1));
+        assertThat(output2.received.size(), is(1));
+
+        logger.removeOutput(PvLog.class, output1);
+        logger.send(new PvLog());
+        assertThat(output1.received.size(), is(1));
+        assertThat(logger.getRegisteredOutputPlugins(PvLog.class).isEmpty(), is(true));
+    }
+
+    @Test
+    public void flushRemovedOutput() {
+        Context context = ApplicationProvider.getApplicationContext();
+        OutCounting output = new OutCounting();
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(new CountingSerializer())
+                .register(PvLog.class, output)
+                .build()
+                .createPureeLogger();
+
+        logger.removeOutput(PvLog.class, output);
+        logger.flush();
+
+        // logs the output buffered before it was removed still get flushed
+        assertThat(output.flushCount, is(1));
+    }
+
+    @Test
+    public void readdRemovedOutputWithoutInitializingAgain() {
+        Context context = ApplicationProvider.getApplicationContext();
+        OutCounting output = new OutCounting();
+
+        PureeLogger logger = new PureeConfiguration.Builder(context)
+                .pureeSerializer(new CountingSerializer())
+                .register(PvLog.class, output)
+                .build()
+                .createPureeLogger();
+        assertThat(output.initializeCount, is(1));
+
+        logger.removeOutput(PvLog.class, output);
+        logger.addOutput(PvLog.class, output);
+        logger.addOutput(ClickEvent.class, output);
+        assertThat(output.initializeCount, is(1));
+
+        logger.send(new PvLog());
+        logger.flush();
+        assertThat(output.received.size(), is(1));
+        assertThat(output.flushCount, is(1));
+    }
+}
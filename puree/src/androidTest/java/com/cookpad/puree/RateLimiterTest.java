@@ -0,0 +1,57 @@
+package com.cookpad.puree;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class RateLimiterTest {
+
+    static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void admitBurstThenRate() {
+        RateLimiter rateLimiter = new RateLimiter(2, 3, 0);
+
+        assertThat(rateLimiter.tryAcquire(0), is(true));
+        assertThat(rateLimiter.tryAcquire(0), is(true));
+        assertThat(rateLimiter.tryAcquire(0), is(true));
+        assertThat(rateLimiter.tryAcquire(0), is(false));
+
+        assertThat(rateLimiter.tryAcquire(SECOND / 2), is(true));
+        assertThat(rateLimiter.tryAcquire(SECOND / 2), is(false));
+
+        assertThat(rateLimiter.tryAcquire(10 * SECOND), is(true));
+        assertThat(rateLimiter.tryAcquire(10 * SECOND), is(true));
+        assertThat(rateLimiter.tryAcquire(10 * SECOND), is(true));
+        assertThat(rateLimiter.tryAcquire(10 * SECOND), is(false));
+
+        assertThat(rateLimiter.getAdmittedCount(), is(7L));
+        assertThat(rateLimiter.getDroppedCount(), is(3L));
+    }
+
+    @Test
+    public void summarizeSincePreviousSummary() {
+        RateLimiter rateLimiter = new RateLimiter(1, 1, 0);
+        rateLimiter.tryAcquire(0);
+        rateLimiter.tryAcquire(0);
+
+        RateLimitSummaryLog summary = rateLimiter.summarize(String.class);
+        assertThat(summary.getLogClass(), is("java.lang.String"));
+        assertThat(summary.getAdmitted(), is(1L));
+        assertThat(summary.getDropped(), is(1L));
+
+        assertThat(rateLimiter.summarize(String.class), is(nullValue()));
+
+        rateLimiter.tryAcquire(0);
+        summary = rateLimiter.summarize(String.class);
+        assertThat(summary.getAdmitted(), is(0L));
+        assertThat(summary.getDropped(), is(1L));
+    }
+}
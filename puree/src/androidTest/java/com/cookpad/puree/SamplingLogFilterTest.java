@@ -0,0 +1,57 @@
+package com.cookpad.puree;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class SamplingLogFilterTest {
+
+    static final SamplingLogFilter.KeyProvider<String> IDENTITY = new SamplingLogFilter.KeyProvider<String>() {
+        @Override
+        public String keyOf(String log) {
+            return log;
+        }
+    };
+
+    @Test
+    public void keepFractionOfKeys() {
+        SamplingLogFilter<String> filter = new SamplingLogFilter<>(0.1, IDENTITY);
+        int kept = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.apply("session" + i) != null) {
+                kept++;
+            }
+        }
+        assertThat(kept, is(greaterThan(900)));
+        assertThat(kept, is(lessThan(1100)));
+    }
+
+    @Test
+    public void consistentPerKey() {
+        SamplingLogFilter<String> low = new SamplingLogFilter<>(0.3, IDENTITY);
+        SamplingLogFilter<String> high = new SamplingLogFilter<>(0.6, IDENTITY);
+        for (int i = 0; i < 1000; i++) {
+            String key = "session" + i;
+            boolean kept = low.apply(key) != null;
+            assertThat(new SamplingLogFilter<>(0.3, IDENTITY).apply(key) != null, is(kept));
+            if (kept) {
+                assertThat(high.apply(key), is(key));
+            }
+        }
+    }
+
+    @Test
+    public void boundaryRates() {
+        SamplingLogFilter<String> none = new SamplingLogFilter<>(0, IDENTITY);
+        SamplingLogFilter<String> all = new SamplingLogFilter<>(1, IDENTITY);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(none.apply("session" + i), is(nullValue()));
+            assertThat(all.apply("session" + i), is("session" + i));
+        }
+    }
+}
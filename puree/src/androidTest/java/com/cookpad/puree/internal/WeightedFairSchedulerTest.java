@@ -0,0 +1,99 @@
+package com.cookpad.puree.internal;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class WeightedFairSchedulerTest {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private final List<String> runs = new ArrayList<>();
+
+    private WeightedFairScheduler.Flow busyFlow(final WeightedFairScheduler scheduler, final String name, int weight) {
+        final WeightedFairScheduler.Flow[] flow = new WeightedFairScheduler.Flow[1];
+        flow[0] = scheduler.newFlow(weight, new Runnable() {
+            @Override
+            public void run() {
+                runs.add(name);
+                // a backlog that never drains
+                flow[0].request();
+            }
+        });
+        return flow[0];
+    }
+
+    private void runTasks(int count) {
+        for (int i = 0; i < count && !tasks.isEmpty(); i++) {
+            tasks.poll().run();
+        }
+    }
+
+    @Test
+    public void shareRunsByWeight() {
+        WeightedFairScheduler scheduler = new WeightedFairScheduler(executor);
+        busyFlow(scheduler, "bulk", 1).request();
+        busyFlow(scheduler, "critical", 3).request();
+
+        runTasks(40);
+
+        assertThat(Collections.frequency(runs, "bulk"), is(10));
+        assertThat(Collections.frequency(runs, "critical"), is(30));
+    }
+
+    @Test
+    public void runIdleFlowNext() {
+        WeightedFairScheduler scheduler = new WeightedFairScheduler(executor);
+        busyFlow(scheduler, "bulk1", 1).request();
+        busyFlow(scheduler, "bulk2", 1).request();
+        runTasks(100);
+
+        WeightedFairScheduler.Flow flow = scheduler.newFlow(1, new Runnable() {
+            @Override
+            public void run() {
+                runs.add("purchase");
+            }
+        });
+        flow.request();
+        flow.request();
+        runTasks(3);
+
+        assertThat(runs.subList(100, 103).contains("purchase"), is(true));
+        assertThat(Collections.frequency(runs, "purchase"), is(1));
+    }
+
+    @Test
+    public void shareRunsByNewWeight() {
+        WeightedFairScheduler scheduler = new WeightedFairScheduler(executor);
+        busyFlow(scheduler, "bulk", 1).request();
+        WeightedFairScheduler.Flow critical = busyFlow(scheduler, "critical", 1);
+        critical.request();
+        runTasks(40);
+
+        critical.setWeight(3);
+        runs.clear();
+        runTasks(40);
+
+        assertThat(Collections.frequency(runs, "bulk"), is(10));
+        assertThat(Collections.frequency(runs, "critical"), is(30));
+    }
+}
@@ -0,0 +1,252 @@
+package com.cookpad.puree.internal;
+
+import com.cookpad.puree.outputs.BackpressurePolicy;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class WriteBehindQueueTest {
+
+    private ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    private final WriteBehindQueue.Sink sink = new WriteBehindQueue.Sink() {
+        @Override
+        public void write(List<String> jsonLogs) {
+            batches.add(jsonLogs);
+        }
+    };
+
+    @Test
+    public void writeOneBatchAfterWindow() throws Exception {
+        WriteBehindQueue queue = new WriteBehindQueue(sink, executor, 20, 100);
+
+        queue.add("foo");
+        queue.add("bar");
+        queue.add("baz");
+
+        assertThat(batches.size(), is(0));
+
+        Thread.sleep(100);
+
+        assertThat(batches.size(), is(1));
+        assertThat(batches.get(0).size(), is(3));
+        assertThat(queue.size(), is(0));
+    }
+
+    @Test
+    public void writeWhenBatchSizeIsReached() throws Exception {
+        WriteBehindQueue queue = new WriteBehindQueue(sink, executor, 10000, 2);
+
+        queue.add("foo");
+        queue.add("bar");
+
+        Thread.sleep(100);
+
+        assertThat(batches.size(), is(1));
+        assertThat(batches.get(0).size(), is(2));
+    }
+
+    @Test
+    public void drain() {
+        WriteBehindQueue queue = new WriteBehindQueue(sink, executor, 10000, 100);
+
+        queue.add("foo");
+        queue.drain();
+
+        assertThat(batches.size(), is(1));
+        assertThat(queue.size(), is(0));
+    }
+
+    @Test
+    public void keepBatchWhenSinkThrows() {
+        final AtomicInteger failures = new AtomicInteger(1);
+        WriteBehindQueue queue = new WriteBehindQueue(new WriteBehindQueue.Sink() {
+            @Override
+            public void write(List<String> jsonLogs) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("disk full");
+                }
+                batches.add(jsonLogs);
+            }
+        }, executor, 10000, 100);
+
+        queue.add("foo");
+        queue.add("bar");
+        try {
+            queue.drain();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertThat(queue.size(), is(2));
+
+        queue.add("baz");
+        queue.drain();
+
+        assertThat(batches.size(), is(1));
+        assertThat(batches.get(0), is(Arrays.asList("foo", "bar", "baz")));
+        assertThat(queue.size(), is(0));
+    }
+
+    @Test
+    public void drainAgainAfterSinkThrows() throws Exception {
+        final AtomicInteger failures = new AtomicInteger(1);
+        WriteBehindQueue queue = new WriteBehindQueue(new WriteBehindQueue.Sink() {
+            @Override
+            public void write(List<String> jsonLogs) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("disk full");
+                }
+                batches.add(jsonLogs);
+            }
+        }, executor, 0, 100);
+
+        queue.add("foo");
+        Thread.sleep(100);
+        assertThat(batches.size(), is(0));
+
+        // the failed drain doesn't keep the queue from starting another one
+        queue.add("bar");
+        Thread.sleep(100);
+
+        assertThat(batches.size(), is(1));
+        assertThat(batches.get(0), is(Arrays.asList("foo", "bar")));
+        assertThat(queue.size(), is(0));
+    }
+
+    @Test
+    public void shrinkRingAfterBurst() throws Exception {
+        final CountDownLatch busy = new CountDownLatch(1);
+        // hold drains back on the executor, so that only the drains below run
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            WriteBehindQueue queue = new WriteBehindQueue(sink, executor, 10000, 16);
+            for (int i = 0; i < 1000; i++) {
+                queue.add(String.valueOf(i));
+            }
+            queue.drain();
+            assertThat(queue.ring.length, is(1024));
+
+            for (int i = 0; i < 10; i++) {
+                queue.add(String.valueOf(i));
+            }
+            queue.drain();
+            assertThat(queue.ring.length, is(32));
+
+            // the same pace doesn't grow it again
+            for (int i = 0; i < 10; i++) {
+                queue.add(String.valueOf(i));
+            }
+            queue.drain();
+            assertThat(queue.ring.length, is(32));
+            assertThat(batches.size(), is(3));
+        } finally {
+            busy.countDown();
+        }
+    }
+
+    private WriteBehindQueue boundedQueue(int capacity, BackpressurePolicy policy) {
+        return new WriteBehindQueue(sink, executor, 10000, 100, capacity, policy, 50);
+    }
+
+    @Test
+    public void dropNewestWhenFull() {
+        WriteBehindQueue queue = boundedQueue(3, BackpressurePolicy.DROP_NEWEST);
+
+        for (String jsonLog : Arrays.asList("1", "2", "3", "4", "5")) {
+            queue.add(jsonLog);
+        }
+        assertThat(queue.size(), is(3));
+        assertThat(queue.getDroppedCount(), is(2L));
+
+        queue.drain();
+        assertThat(batches.get(0), is(Arrays.asList("1", "2", "3")));
+    }
+
+    @Test
+    public void dropOldestWhenFull() {
+        WriteBehindQueue queue = boundedQueue(3, BackpressurePolicy.DROP_OLDEST);
+
+        for (String jsonLog : Arrays.asList("1", "2", "3", "4", "5", "6", "7")) {
+            queue.add(jsonLog);
+        }
+        assertThat(queue.size(), is(3));
+        assertThat(queue.getDroppedCount(), is(4L));
+
+        queue.drain();
+        assertThat(batches.get(0), is(Arrays.asList("5", "6", "7")));
+    }
+
+    @Test
+    public void blockUntilTimeoutWhenFull() {
+        WriteBehindQueue queue = boundedQueue(1, BackpressurePolicy.BLOCK);
+
+        queue.add("1");
+        long startedAt = System.currentTimeMillis();
+        queue.add("2");
+
+        assertThat(System.currentTimeMillis() - startedAt, is(greaterThanOrEqualTo(40L)));
+        assertThat(queue.size(), is(1));
+        assertThat(queue.getDroppedCount(), is(1L));
+    }
+
+    @Test
+    public void dropNewestWhenFullOnExecutorThread() throws Exception {
+        final WriteBehindQueue queue = boundedQueue(1, BackpressurePolicy.BLOCK);
+
+        // like a rate limit summary sent from a task on the executor
+        long elapsedMillis = executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                queue.add("1");
+                long startedAt = System.currentTimeMillis();
+                queue.add("2");
+                return System.currentTimeMillis() - startedAt;
+            }
+        }).get();
+
+        assertThat(elapsedMillis, is(lessThan(40L)));
+        assertThat(queue.size(), is(1));
+        assertThat(queue.getDroppedCount(), is(1L));
+    }
+
+    @Test
+    public void sampleWhenFillingUp() {
+        WriteBehindQueue queue = boundedQueue(4, BackpressurePolicy.SAMPLE);
+
+        for (int i = 0; i < 10; i++) {
+            queue.add(String.valueOf(i));
+        }
+
+        // all of the first half, one in two, then nothing once full
+        assertThat(queue.size(), is(4));
+        assertThat(queue.getDroppedCount(), is(6L));
+        queue.drain();
+        assertThat(batches.get(0).subList(0, 3), is(Arrays.asList("0", "1", "2")));
+    }
+}
@@ -4,7 +4,9 @@ import com.cookpad.puree.PureeConfiguration;
 import com.cookpad.puree.PureeFilter;
 import com.cookpad.puree.PureeLogger;
 import com.cookpad.puree.PureeSerializer;
+import com.cookpad.puree.async.Acknowledgement;
 import com.cookpad.puree.async.AsyncResult;
+import com.cookpad.puree.async.BatchAsyncResult;
 import com.cookpad.puree.storage.PureeSQLiteStorage;
 
 import junit.framework.AssertionFailedError;
@@ -16,11 +18,14 @@ import org.junit.runner.RunWith;
 
 import android.content.Context;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -156,6 +161,167 @@ public class PureeBufferedOutputTest {
     }
 
 
+    @ParametersAreNonnullByDefault
+    class PipelinedBufferedOutput extends BufferedOutputBase {
+
+        final List<AsyncResult> results = new CopyOnWriteArrayList<>();
+
+        @Nonnull
+        @Override
+        public OutputConfiguration configure(OutputConfiguration conf) {
+            conf.setFlushIntervalMillis(5000);
+            conf.setLogsPerRequest(1);
+            conf.setMaxInFlightRequests(3);
+            return conf;
+        }
+
+        @Override
+        public void emit(List<String> jsonLogs, AsyncResult result) {
+            logs.addAll(jsonLogs);
+            results.add(result);
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    class BacklogBufferedOutput extends BufferedOutputBase {
+
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+        @Nonnull
+        @Override
+        public OutputConfiguration configure(OutputConfiguration conf) {
+            conf.setFlushIntervalMillis(60 * 1000);
+            conf.setLogsPerRequest(2);
+            conf.setFlushBacklogCount(4);
+            return conf;
+        }
+
+        @Override
+        public void emit(List<String> jsonLogs, AsyncResult result) {
+            batches.add(new ArrayList<>(jsonLogs));
+            result.success();
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    class CircuitBreakerBufferedOutput extends BufferedOutputBase {
+
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+        volatile boolean down = true;
+
+        @Nonnull
+        @Override
+        public OutputConfiguration configure(OutputConfiguration conf) {
+            conf.setFlushIntervalMillis(10);
+            conf.setCircuitBreakerThreshold(2);
+            conf.setCircuitBreakerOpenMillis(300);
+            return conf;
+        }
+
+        @Override
+        public void emit(List<String> jsonLogs, AsyncResult result) {
+            batches.add(new ArrayList<>(jsonLogs));
+            if (down) {
+                result.fail();
+            } else {
+                result.success();
+            }
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    class LostCallbackBufferedOutput extends BufferedOutputBase {
+
+        final List<AsyncResult> results = new CopyOnWriteArrayList<>();
+
+        @Nonnull
+        @Override
+        public OutputConfiguration configure(OutputConfiguration conf) {
+            conf.setFlushIntervalMillis(10);
+            conf.setEmitTimeoutMillis(50);
+            return conf;
+        }
+
+        @Override
+        public void emit(List<String> jsonLogs, AsyncResult result) {
+            results.add(result);
+            if (results.size() > 1) {
+                logs.addAll(jsonLogs);
+                result.success();
+            }
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    class PartialBufferedOutput extends BufferedOutputBase {
+
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void emit(List<String> jsonLogs, AsyncResult result) {
+            batches.add(new ArrayList<>(jsonLogs));
+            if (batches.size() == 1) {
+                ((BatchAsyncResult) result).acknowledge(new Acknowledgement().retry(1).reject(2));
+            } else {
+                result.success();
+            }
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    class PoisonBufferedOutput extends BufferedOutputBase {
+
+        final List<String> emitted = new CopyOnWriteArrayList<>();
+
+        @Nonnull
+        @Override
+        public OutputConfiguration configure(OutputConfiguration conf) {
+            conf.setFlushIntervalMillis(10);
+            conf.setLogsPerRequest(4);
+            conf.setMaxRecordFailures(2);
+            return conf;
+        }
+
+        @Override
+        public void emit(List<String> jsonLogs, AsyncResult result) {
+            if (jsonLogs.contains("{\"name\":\"poison\"}")) {
+                result.fail();
+            } else {
+                emitted.addAll(jsonLogs);
+                result.success();
+            }
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    class OutageBufferedOutput extends BufferedOutputBase {
+
+        final List<String> emitted = new CopyOnWriteArrayList<>();
+
+        volatile boolean down = true;
+
+        @Nonnull
+        @Override
+        public OutputConfiguration configure(OutputConfiguration conf) {
+            conf.setFlushIntervalMillis(10);
+            conf.setLogsPerRequest(4);
+            conf.setMaxRecordFailures(1);
+            conf.setMaxRetryCount(100);
+            return conf;
+        }
+
+        @Override
+        public void emit(List<String> jsonLogs, AsyncResult result) {
+            if (down) {
+                result.fail();
+            } else {
+                emitted.addAll(jsonLogs);
+                result.success();
+            }
+        }
+    }
+
     @ParametersAreNonnullByDefault
     public static class DiscardFilter implements PureeFilter {
 
@@ -362,4 +528,180 @@ public class PureeBufferedOutputTest {
 
     }
 
+    @Test
+    public void testPureeBufferedOutput_pipelined() throws Exception {
+        PipelinedBufferedOutput output = new PipelinedBufferedOutput();
+        initializeLogger(output);
+
+        logger.send(new PvLog("foo"));
+        logger.send(new PvLog("bar"));
+        logger.send(new PvLog("baz"));
+        logger.flush();
+
+        Thread.sleep(100);
+
+        assertThat(output.results.size(), is(3));
+        assertThat(logs.poll(100, TimeUnit.MILLISECONDS), is("{\"name\":\"foo\"}"));
+        assertThat(logs.poll(100, TimeUnit.MILLISECONDS), is("{\"name\":\"bar\"}"));
+        assertThat(logs.poll(100, TimeUnit.MILLISECONDS), is("{\"name\":\"baz\"}"));
+
+        output.results.get(2).success();
+        output.results.get(0).success();
+        output.results.get(1).fail();
+
+        assertThat(logger.getBufferedLogs().getJsonLogs(), contains("{\"name\":\"bar\"}"));
+    }
+
+    @Test
+    public void testPureeBufferedOutput_flushOnBacklog() throws Exception {
+        BacklogBufferedOutput output = new BacklogBufferedOutput();
+        initializeLogger(output);
+
+        logger.send(new PvLog("foo"));
+        logger.send(new PvLog("bar"));
+        logger.send(new PvLog("baz"));
+
+        Thread.sleep(200);
+        assertThat(output.batches.size(), is(0));
+
+        logger.send(new PvLog("qux"));
+        logger.send(new PvLog("quux"));
+
+        Thread.sleep(200);
+        assertThat(output.batches.size(), is(3));
+        assertThat(output.batches.get(2), contains("{\"name\":\"quux\"}"));
+        assertThat(logger.getBufferedLogs().size(), is(0));
+    }
+
+    @Test
+    public void testPureeBufferedOutput_circuitBreaker() throws Exception {
+        CircuitBreakerBufferedOutput output = new CircuitBreakerBufferedOutput();
+        initializeLogger(output);
+
+        logger.send(new PvLog("foo"));
+        logger.send(new PvLog("bar"));
+        logger.send(new PvLog("baz"));
+        logger.flush();
+
+        Thread.sleep(200);
+        assertThat(output.batches.size(), is(2));
+
+        output.down = false;
+        Thread.sleep(300);
+
+        assertThat(output.batches.size(), is(4));
+        assertThat(output.batches.get(2), contains("{\"name\":\"foo\"}"));
+        assertThat(output.batches.get(3), contains("{\"name\":\"bar\"}", "{\"name\":\"baz\"}"));
+    }
+
+    @Test
+    public void testPureeBufferedOutput_emitTimeout() throws Exception {
+        LostCallbackBufferedOutput output = new LostCallbackBufferedOutput();
+        initializeLogger(output);
+
+        logger.send(new PvLog("foo"));
+        logger.flush();
+
+        Thread.sleep(300);
+
+        assertThat(output.getEmitTimeoutCount(), is(1L));
+        assertThat(output.results.size(), is(2));
+        assertThat(logs.poll(100, TimeUnit.MILLISECONDS), is("{\"name\":\"foo\"}"));
+
+        // a late callback of the timed out batch is ignored
+        output.results.get(0).fail();
+        output.results.get(0).success();
+        assertThat(output.getEmitTimeoutCount(), is(1L));
+        assertThat(logger.getBufferedLogs().size(), is(0));
+    }
+
+    @Test
+    public void testPureeBufferedOutput_partialAcknowledgement() throws Exception {
+        PartialBufferedOutput output = new PartialBufferedOutput();
+        initializeLogger(output);
+
+        logger.send(new PvLog("foo"));
+        logger.send(new PvLog("bar"));
+        logger.send(new PvLog("baz"));
+        logger.flush();
+
+        Thread.sleep(200);
+
+        assertThat(output.batches.size(), is(2));
+        assertThat(output.batches.get(1), contains("{\"name\":\"bar\"}"));
+        assertThat(logger.getBufferedLogs().size(), is(0));
+    }
+
+    @Test
+    public void testPureeBufferedOutput_isolatePoisonRecord() throws Exception {
+        PoisonBufferedOutput output = new PoisonBufferedOutput();
+        initializeLogger(output);
+        PureeSQLiteStorage storage = (PureeSQLiteStorage) logger.getStorage();
+
+        for (int i = 0; i < 8; i++) {
+            logger.send(new PvLog(i == 2 ? "poison" : "log" + i));
+        }
+        logger.flush();
+
+        Thread.sleep(500);
+
+        assertThat(output.emitted.size(), is(7));
+        assertThat(output.getDeadLetterCount(), is(1L));
+        assertThat(logger.getBufferedLogs().size(), is(0));
+        assertThat(storage.selectDeadLetters(output.type(), 10).getJsonLogs(), contains("{\"name\":\"poison\"}"));
+    }
+
+    @Test
+    public void testPureeBufferedOutput_keepHealthyRecordsThroughOutage() throws Exception {
+        OutageBufferedOutput output = new OutageBufferedOutput();
+        initializeLogger(output);
+
+        for (int i = 0; i < 6; i++) {
+            logger.send(new PvLog("log" + i));
+        }
+        logger.flush();
+
+        // failing batches are split down to a single record while the endpoint is down
+        Thread.sleep(300);
+        output.down = false;
+        Thread.sleep(1000);
+
+        assertThat(output.emitted.size(), is(6));
+        assertThat(output.getDeadLetterCount(), is(0L));
+        assertThat(logger.getBufferedLogs().size(), is(0));
+    }
+
+    @Test
+    public void testPureeBufferedOutput_retryWhenStorageFailsToInsert() throws Exception {
+        final AtomicInteger insertFailures = new AtomicInteger(0);
+        PureeSQLiteStorage storage = new PureeSQLiteStorage(context) {
+            @Override
+            public synchronized void insertAll(String type, List<String> jsonLogs) {
+                if (insertFailures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("disk full");
+                }
+                super.insertAll(type, jsonLogs);
+            }
+        };
+        BufferedOutput output = new BufferedOutput();
+        logger = new PureeConfiguration.Builder(context)
+                .register(PvLog.class, output)
+                .pureeSerializer(pureeSerializer)
+                .storage(storage)
+                .build()
+                .createPureeLogger();
+        logger.discardBufferedLogs();
+
+        logger.send(new PvLog("foo"));
+        output.writeBehindQueue.drain();
+
+        // the stored log is emitted although the received one fails to be inserted
+        insertFailures.set(1);
+        logger.send(new PvLog("bar"));
+        logger.flush();
+
+        assertThat(logs.poll(1000, TimeUnit.MILLISECONDS), is("{\"name\":\"foo\"}"));
+        assertThat(logs.poll(1000, TimeUnit.MILLISECONDS), is("{\"name\":\"bar\"}"));
+        assertThat(output.getQueuedLogCount(), is(0));
+    }
 }
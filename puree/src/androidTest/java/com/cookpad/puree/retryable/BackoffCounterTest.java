@@ -1,6 +1,7 @@
 package com.cookpad.puree.retryable;
 
 import com.cookpad.puree.internal.BackoffCounter;
+import com.cookpad.puree.outputs.RetryPolicies;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -8,6 +9,7 @@ import org.junit.runner.RunWith;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertThat;
 
 @RunWith(AndroidJUnit4.class)
@@ -40,4 +42,18 @@ public class BackoffCounterTest {
         assertThat(backoffCounter.timeInMillis(), is(10L));
         assertThat(backoffCounter.isRemainingRetryCount(), is(true));
     }
+
+    @Test
+    public void exponentialWithFullJitter() {
+        BackoffCounter backoffCounter = new BackoffCounter(10, 10, RetryPolicies.exponentialWithFullJitter(100));
+
+        assertThat(backoffCounter.timeInMillis(), is(10L));
+        long[] ceilings = {20, 40, 80, 100, 100};
+        for (long ceiling : ceilings) {
+            backoffCounter.incrementRetryCount();
+            for (int i = 0; i < 100; i++) {
+                assertThat(backoffCounter.timeInMillis(), is(lessThanOrEqualTo(ceiling)));
+            }
+        }
+    }
 }
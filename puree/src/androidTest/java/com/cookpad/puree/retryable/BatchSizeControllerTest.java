@@ -0,0 +1,47 @@
+package com.cookpad.puree.retryable;
+
+import com.cookpad.puree.internal.BatchSizeController;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class BatchSizeControllerTest {
+
+    @Test
+    public void increaseAdditivelyAndDecreaseMultiplicatively() {
+        BatchSizeController controller = new BatchSizeController(100, 20, 150, 1000);
+
+        controller.onSuccess(100, 500);
+        assertThat(controller.getSize(), is(120));
+
+        // a partial batch or a slow one doesn't grow it
+        controller.onSuccess(50, 500);
+        assertThat(controller.getSize(), is(120));
+        controller.onSuccess(120, 1500);
+        assertThat(controller.getSize(), is(60));
+
+        controller.onFailure();
+        controller.onFailure();
+        assertThat(controller.getSize(), is(20));
+
+        for (int i = 0; i < 10; i++) {
+            controller.onSuccess(controller.getSize(), 0);
+        }
+        assertThat(controller.getSize(), is(150));
+    }
+
+    @Test
+    public void keepSizeWithoutBounds() {
+        BatchSizeController controller = new BatchSizeController(100, 0, 0, 1000);
+
+        controller.onSuccess(100, 0);
+        controller.onFailure();
+        assertThat(controller.getSize(), is(100));
+    }
+}
@@ -0,0 +1,52 @@
+package com.cookpad.puree.retryable;
+
+import com.cookpad.puree.internal.CircuitBreaker;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class CircuitBreakerTest {
+
+    @Test
+    public void openAndProbe() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 100);
+
+        circuitBreaker.onFailure(0);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.allowRequest(0), is(true));
+
+        circuitBreaker.onFailure(10);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.allowRequest(50), is(false));
+        assertThat(circuitBreaker.remainingOpenMillis(50), is(60L));
+
+        assertThat(circuitBreaker.allowRequest(110), is(true));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+
+        circuitBreaker.onFailure(120);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.allowRequest(200), is(false));
+
+        assertThat(circuitBreaker.allowRequest(220), is(true));
+        circuitBreaker.onSuccess();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+
+        circuitBreaker.onFailure(230);
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void disabled() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(0, 100);
+        for (int i = 0; i < 100; i++) {
+            circuitBreaker.onFailure(i);
+        }
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+}
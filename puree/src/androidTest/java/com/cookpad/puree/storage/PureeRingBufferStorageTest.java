@@ -0,0 +1,182 @@
+package com.cookpad.puree.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class PureeRingBufferStorageTest {
+
+    PureeSQLiteStorage durableStorage;
+
+    PureeRingBufferStorage storage;
+
+    @Before
+    public void setUp() {
+        durableStorage = new PureeSQLiteStorage(ApplicationProvider.getApplicationContext());
+        durableStorage.clear();
+        storage = new PureeRingBufferStorage(durableStorage, 4, 3);
+    }
+
+    @After
+    public void tearDown() {
+        storage.clear();
+    }
+
+    @Test
+    public void keepLogsInMemoryUntilWatermark() {
+        storage.insert("foo", "1");
+        storage.insert("foo", "2");
+
+        assertThat(durableStorage.selectAll().size(), is(0));
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("1", "2")));
+
+        storage.insert("foo", "3");
+
+        assertThat(storage.getSpillCount(), is(1L));
+        assertThat(storage.getSpilledLogCount(), is(3L));
+        assertThat(durableStorage.select("foo", 10).getJsonLogs(), is(Arrays.asList("1", "2", "3")));
+
+        storage.insert("foo", "4");
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("1", "2", "3", "4")));
+    }
+
+    @Test
+    public void deleteFromMemoryAndDurableStorage() {
+        storage.insert("foo", "1");
+        storage.spill();
+        storage.insert("foo", "2");
+        storage.insert("foo", "3");
+
+        storage.delete(storage.select("foo", 2));
+
+        assertThat(storage.selectAll().getJsonLogs(), is(Arrays.asList("3")));
+        assertThat(durableStorage.selectAll().size(), is(0));
+    }
+
+    @Test
+    public void keepLogsOfLockedTypeInMemory() {
+        storage.insert("foo", "1");
+        storage.insert("bar", "2");
+        assertThat(storage.lock("foo"), is(true));
+
+        storage.spill();
+        assertThat(durableStorage.selectAll().getJsonLogs(), is(Arrays.asList("2")));
+
+        storage.unlock("foo");
+        assertThat(durableStorage.selectAll().getJsonLogs(), is(Arrays.asList("2", "1")));
+    }
+
+    @Test
+    public void keepOrderWhenRingIsFullOfLockedLogs() {
+        assertThat(storage.lock("foo"), is(true));
+        for (int i = 1; i <= 5; i++) {
+            storage.insert("foo", String.valueOf(i));
+        }
+        assertThat(durableStorage.selectAll().size(), is(0));
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("1", "2", "3", "4", "5")));
+
+        storage.unlock("foo");
+        assertThat(durableStorage.select("foo", 10).getJsonLogs(), is(Arrays.asList("1", "2", "3", "4", "5")));
+    }
+
+    @Test
+    public void spillWhenBackgrounded() {
+        final List<Runnable> spills = new ArrayList<>();
+        storage = new PureeRingBufferStorage(durableStorage, 4, 3, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                spills.add(command);
+            }
+        });
+
+        storage.insert("foo", "1");
+        storage.onTrimMemory(PureeRingBufferStorage.TRIM_MEMORY_UI_HIDDEN);
+
+        // the system calls back on the main thread, so the spill runs on the executor
+        assertThat(durableStorage.selectAll().size(), is(0));
+        assertThat(spills.size(), is(1));
+
+        spills.get(0).run();
+        assertThat(durableStorage.selectAll().getJsonLogs(), is(Arrays.asList("1")));
+    }
+
+    @Test
+    public void coalesceMemoryEventsWhileSpillIsPending() {
+        final List<Runnable> spills = new ArrayList<>();
+        storage = new PureeRingBufferStorage(durableStorage, 4, 3, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                spills.add(command);
+            }
+        });
+
+        storage.onTrimMemory(PureeRingBufferStorage.TRIM_MEMORY_UI_HIDDEN);
+        storage.onTrimMemory(PureeRingBufferStorage.TRIM_MEMORY_BACKGROUND);
+        storage.onLowMemory();
+        assertThat(spills.size(), is(1));
+
+        spills.get(0).run();
+        storage.onLowMemory();
+        assertThat(spills.size(), is(2));
+    }
+
+    @Test
+    public void closeStopsListeningToMemoryEvents() {
+        final List<ComponentCallbacks> callbacks = new ArrayList<>();
+        Context context = new ContextWrapper(ApplicationProvider.getApplicationContext()) {
+            @Override
+            public Context getApplicationContext() {
+                return this;
+            }
+
+            @Override
+            public void registerComponentCallbacks(ComponentCallbacks callback) {
+                callbacks.add(callback);
+            }
+
+            @Override
+            public void unregisterComponentCallbacks(ComponentCallbacks callback) {
+                callbacks.remove(callback);
+            }
+        };
+        storage = new PureeRingBufferStorage(context, durableStorage);
+        assertThat(callbacks.size(), is(1));
+
+        storage.insert("foo", "1");
+        storage.close();
+
+        assertThat(callbacks.size(), is(0));
+        assertThat(durableStorage.selectAll().getJsonLogs(), is(Arrays.asList("1")));
+    }
+
+    @Test
+    public void truncateBufferedLogs() {
+        storage.insert("foo", "1");
+        storage.spill();
+        storage.insert("foo", "2");
+        storage.insert("foo", "3");
+
+        storage.truncateBufferedLogs(2);
+        assertThat(storage.selectAll().getJsonLogs(), is(Arrays.asList("2", "3")));
+
+        storage.truncateBufferedLogs(1);
+        assertThat(storage.selectAll().getJsonLogs(), is(Arrays.asList("3")));
+    }
+}
@@ -0,0 +1,95 @@
+package com.cookpad.puree.storage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Arrays;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class PureeSQLiteStorageTest extends PureeStorageTestBase<PureeSQLiteStorage> {
+
+    Context context;
+
+    @Override
+    PureeSQLiteStorage createStorage() {
+        context = ApplicationProvider.getApplicationContext();
+        return new PureeSQLiteStorage(context);
+    }
+
+    @Test
+    public void migrateFromVersion1() {
+        String name = PureeSQLiteStorage.databaseName(context);
+        context.deleteDatabase(name);
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(name), null);
+        db.execSQL("CREATE TABLE logs (id INTEGER PRIMARY KEY AUTOINCREMENT, type TEXT, log TEXT)");
+        db.execSQL("INSERT INTO logs (type, log) VALUES ('foo', '1')");
+        db.setVersion(1);
+        db.close();
+
+        storage = new PureeSQLiteStorage(context);
+
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("1")));
+
+        db = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(name), null);
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name = 'logs_type_id_log_length'", null);
+        try {
+            assertThat(cursor.getCount(), is(1));
+        } finally {
+            cursor.close();
+        }
+        cursor = db.rawQuery("SELECT log_length FROM logs", null);
+        try {
+            assertThat(cursor.moveToNext(), is(true));
+            assertThat(cursor.getInt(0), is(1));
+        } finally {
+            cursor.close();
+            db.close();
+        }
+    }
+
+    @Test
+    public void moveToDeadLetters() {
+        storage.insert("foo", "1");
+        storage.insert("foo", "2");
+        storage.insert("bar", "3");
+
+        Records records = storage.select("foo", 1);
+        storage.moveToDeadLetters(records);
+
+        assertThat(storage.selectAll().getJsonLogs(), is(Arrays.asList("2", "3")));
+        Records deadLetters = storage.selectDeadLetters("foo", 10);
+        assertThat(deadLetters.getJsonLogs(), is(Arrays.asList("1")));
+        assertThat(storage.selectDeadLetters("bar", 10).size(), is(0));
+
+        storage.deleteDeadLetters(deadLetters);
+        assertThat(storage.selectDeadLetters("foo", 10).size(), is(0));
+    }
+
+    @Test
+    public void keepDeadLettersWithinRetention() {
+        storage.setDeadLetterRetention(PureeSQLiteStorage.DEFAULT_DEAD_LETTER_MAX_AGE_MILLIS, 2);
+        storage.insert("foo", "1");
+        storage.insert("foo", "2");
+        storage.insert("foo", "3");
+
+        storage.moveToDeadLetters(storage.select("foo", 1));
+        storage.moveToDeadLetters(storage.select("foo", 2));
+
+        assertThat(storage.selectDeadLetters("foo", 10).getJsonLogs(), is(Arrays.asList("2", "3")));
+
+        storage.setDeadLetterRetention(-1, 2);
+        storage.insert("foo", "4");
+        storage.moveToDeadLetters(storage.select("foo", 1));
+        assertThat(storage.selectDeadLetters("foo", 10).size(), is(0));
+    }
+}
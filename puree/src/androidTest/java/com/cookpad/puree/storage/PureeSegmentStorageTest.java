@@ -0,0 +1,114 @@
+package com.cookpad.puree.storage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class PureeSegmentStorageTest extends PureeStorageTestBase<PureeSegmentStorage> {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    File directory;
+
+    @Override
+    PureeSegmentStorage createStorage() {
+        Context context = ApplicationProvider.getApplicationContext();
+        directory = new File(context.getFilesDir(), "puree_segments_test");
+        return new PureeSegmentStorage(directory, SEGMENT_SIZE);
+    }
+
+    @Test
+    public void reopen() {
+        storage.insertAll("foo", Arrays.asList("1", "2", "3"));
+        storage.delete(storage.select("foo", 1));
+
+        storage = new PureeSegmentStorage(directory, SEGMENT_SIZE);
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("2", "3")));
+
+        storage.insert("foo", "4");
+        assertThat(storage.selectAll().getJsonLogs(), is(Arrays.asList("2", "3", "4")));
+    }
+
+    @Test
+    public void logsDeletedOutOfOrderAreSentAgainAfterReopen() {
+        storage.insertAll("foo", Arrays.asList("1", "2", "3"));
+        Records second = new Records();
+        second.add(storage.select("foo", 10).get(1));
+        storage.delete(second);
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("1", "3")));
+
+        storage = new PureeSegmentStorage(directory, SEGMENT_SIZE);
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("1", "2", "3")));
+    }
+
+    @Test
+    public void discardTornRecord() throws Exception {
+        storage.insertAll("foo", Arrays.asList("aaaa", "bbbb"));
+
+        File segment = new File(new File(directory, PureeSegmentStorage.encodeType("foo")), Segment.fileName(0));
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            // a byte in the payload of the second record
+            file.seek(Segment.HEADER_SIZE + 4 + Segment.HEADER_SIZE + 1);
+            file.write('x');
+        } finally {
+            file.close();
+        }
+
+        storage = new PureeSegmentStorage(directory, SEGMENT_SIZE);
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("aaaa")));
+
+        storage.insert("foo", "cc");
+        storage = new PureeSegmentStorage(directory, SEGMENT_SIZE);
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("aaaa", "cc")));
+    }
+
+    @Test
+    public void reclaimDrainedSegments() {
+        for (int i = 0; i < 100; i++) {
+            storage.insert("foo", "{\"name\":\"log" + i + "\"}");
+        }
+        File typeDirectory = new File(directory, PureeSegmentStorage.encodeType("foo"));
+        int filesBefore = typeDirectory.list().length;
+
+        Records records;
+        while (!(records = storage.select("foo", 10)).isEmpty()) {
+            storage.delete(records);
+        }
+
+        assertThat(typeDirectory.list().length, is(lessThan(filesBefore)));
+    }
+
+    @Test
+    public void encodeType() {
+        String[] types = {"", ".", "a/b", "buffered_logcat"};
+        for (String type : types) {
+            assertThat(PureeSegmentStorage.decodeType(PureeSegmentStorage.encodeType(type)), is(type));
+        }
+        assertThat(PureeSegmentStorage.encodeType(""), is(not("")));
+        assertThat(PureeSegmentStorage.decodeType("xyz"), is(nullValue()));
+        assertThat(PureeSegmentStorage.decodeType("666f6f"), is(nullValue()));
+    }
+
+    @Test
+    public void reopenEmptyType() {
+        storage.insert("", "1");
+        storage.insert("foo", "2");
+
+        storage = new PureeSegmentStorage(directory, SEGMENT_SIZE);
+        assertThat(storage.select("", 10).getJsonLogs(), is(Arrays.asList("1")));
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("2")));
+    }
+}
@@ -0,0 +1,136 @@
+package com.cookpad.puree.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Behavior that every built-in {@link PureeStorage} must have.
+ */
+public abstract class PureeStorageTestBase<S extends PureeBulkStorage & PureeTypeLockStorage & PureePagingStorage & PureeSizeAwareStorage> {
+
+    S storage;
+
+    abstract S createStorage();
+
+    @Before
+    public void setUpStorage() {
+        storage = createStorage();
+        storage.clear();
+    }
+
+    @After
+    public void tearDownStorage() {
+        storage.clear();
+    }
+
+    @Test
+    public void insertAndSelect() {
+        storage.insert("foo", "{\"name\":\"foo\"}");
+        storage.insert("bar", "{\"name\":\"bar\"}");
+
+        Records records = storage.select("foo", 10);
+        assertThat(records.size(), is(1));
+        assertThat(records.get(0).getType(), is("foo"));
+        assertThat(records.get(0).getJsonLog(), is("{\"name\":\"foo\"}"));
+    }
+
+    @Test
+    public void insertAll() {
+        storage.insertAll("foo", Arrays.asList("1", "2", "3"));
+        storage.insertAll("bar", Arrays.asList("4"));
+
+        Records records = storage.select("foo", 10);
+        assertThat(records.getJsonLogs(), is(Arrays.asList("1", "2", "3")));
+        assertThat(storage.selectAll().size(), is(4));
+    }
+
+    @Test
+    public void selectAfter() {
+        storage.insertAll("foo", Arrays.asList("1", "2", "3"));
+
+        Records records = storage.select("foo", 1);
+        Records next = storage.selectAfter("foo", records.get(0).getId(), 10);
+        assertThat(next.getJsonLogs(), is(Arrays.asList("2", "3")));
+    }
+
+    @Test
+    public void selectAllAfter() {
+        storage.insertAll("foo", Arrays.asList("1", "2"));
+        storage.insertAll("bar", Arrays.asList("3"));
+
+        Records page1 = storage.selectAllAfter(PureePagingStorage.FIRST_PAGE, 2);
+        assertThat(page1.getJsonLogs(), is(Arrays.asList("1", "2")));
+
+        Records page2 = storage.selectAllAfter(page1.get(1).getId(), 2);
+        assertThat(page2.getJsonLogs(), is(Arrays.asList("3")));
+    }
+
+    @Test
+    public void streamAll() {
+        storage.insertAll("foo", Arrays.asList("1", "2", "3"));
+
+        List<String> jsonLogs = new ArrayList<>();
+        RecordStream records = PureeStorages.streamAll(storage);
+        try {
+            for (Record record : records) {
+                jsonLogs.add(record.getJsonLog());
+            }
+        } finally {
+            records.close();
+        }
+        assertThat(jsonLogs, is(Arrays.asList("1", "2", "3")));
+    }
+
+    @Test
+    public void delete() {
+        storage.insertAll("foo", Arrays.asList("1", "2", "3"));
+
+        Records records = storage.select("foo", 2);
+        storage.delete(records);
+
+        assertThat(storage.select("foo", 10).getJsonLogs(), is(Arrays.asList("3")));
+    }
+
+    @Test
+    public void selectWithinBytes() {
+        storage.insertAll("foo", Arrays.asList("12345", "12345", "12345"));
+
+        assertThat(storage.selectWithinBytes("foo", PureePagingStorage.FIRST_PAGE, 10, 10).size(), is(2));
+        assertThat(storage.selectWithinBytes("foo", PureePagingStorage.FIRST_PAGE, 10, 1).size(), is(1));
+        assertThat(storage.selectWithinBytes("foo", PureePagingStorage.FIRST_PAGE, 2, 100).size(), is(2));
+
+        Records first = storage.selectWithinBytes("foo", PureePagingStorage.FIRST_PAGE, 10, 10);
+        assertThat(storage.selectWithinBytes("foo", first.get(1).getId(), 10, 10).size(), is(1));
+    }
+
+    @Test
+    public void lockPerType() {
+        assertThat(storage.lock("foo"), is(true));
+        assertThat(storage.lock("foo"), is(false));
+        assertThat(storage.lock("bar"), is(true));
+
+        storage.unlock("foo");
+        assertThat(storage.lock("foo"), is(true));
+
+        storage.unlock("foo");
+        storage.unlock("bar");
+    }
+
+    @Test
+    public void truncateBufferedLogs() {
+        storage.insertAll("foo", Arrays.asList("1", "2"));
+        storage.insertAll("bar", Arrays.asList("3"));
+
+        storage.truncateBufferedLogs(2);
+
+        assertThat(storage.selectAll().getJsonLogs(), is(Arrays.asList("2", "3")));
+    }
+}
@@ -0,0 +1,23 @@
+package com.cookpad.puree.storage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class PureeStoragesTest {
+
+    @Test
+    public void byteLength() {
+        String[] jsonLogs = {"", "{\"name\":\"foo\"}", "caf\u00e9", "\u65e5\u672c", "\ud83c\udf5b"};
+        for (String jsonLog : jsonLogs) {
+            assertThat(PureeStorages.byteLength(jsonLog), is(jsonLog.getBytes(Charset.forName("UTF-8")).length));
+        }
+    }
+}
@@ -4,6 +4,9 @@ import org.hamcrest.Matchers;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
+import java.util.List;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
 import static org.hamcrest.Matchers.*;
@@ -46,4 +49,32 @@ public class RecordsTest {
         }
     }
 
+    @Test
+    public void getJsonLogsReturnsCopy() {
+        Records records = new Records();
+        records.add(new Record(0, "logcat", "foo"));
+
+        List<String> jsonLogs = records.getJsonLogs();
+        jsonLogs.add("bar");
+        records.add(new Record(1, "logcat", "baz"));
+
+        assertThat(jsonLogs, is(Arrays.asList("foo", "bar")));
+        assertThat(records.size(), is(2));
+    }
+
+    @Test
+    public void getJsonLogsView() {
+        Records records = new Records();
+        records.add(new Record(0, "logcat", "foo"));
+
+        List<String> jsonLogs = records.getJsonLogsView();
+        records.add(new Record(1, "logcat", "bar"));
+
+        assertThat(jsonLogs, is(Arrays.asList("foo", "bar")));
+        try {
+            jsonLogs.add("baz");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
 }
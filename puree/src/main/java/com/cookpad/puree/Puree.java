@@ -1,6 +1,9 @@
 package com.cookpad.puree;
 
 import com.cookpad.puree.internal.LogDumper;
+import com.cookpad.puree.outputs.PureeOutput;
+import com.cookpad.puree.storage.PureePagingStorage;
+import com.cookpad.puree.storage.RecordStream;
 import com.cookpad.puree.storage.Records;
 
 import android.util.Log;
@@ -44,7 +47,13 @@ public class Puree {
     }
 
     public static void dump() {
-        LogDumper.out(getBufferedLogs());
+        checkIfPureeHasInitialized();
+        RecordStream records = logger.streamBufferedLogs();
+        try {
+            LogDumper.out(records);
+        } finally {
+            records.close();
+        }
     }
 
     /**
@@ -57,6 +66,18 @@ public class Puree {
         return logger.getBufferedLogs();
     }
 
+    /**
+     * Get a page of logs that in buffer, to read a large buffer in bounded memory.
+     *
+     * @param afterId id of the last record of the previous page, or {@link PureePagingStorage#FIRST_PAGE}.
+     * @param limit max number of logs in the page.
+     * @return {@link Records}.
+     */
+    public static Records getBufferedLogs(int afterId, int limit) {
+        checkIfPureeHasInitialized();
+        return logger.getBufferedLogs(afterId, limit);
+    }
+
     /**
      * Discards all logs in buffer.
      */
@@ -75,6 +96,22 @@ public class Puree {
         logger.truncateBufferedLogs(truncateThresholdInRows);
     }
 
+    /**
+     * Send logs of the class to an output as well, e.g. when remote config changes.
+     */
+    public static void addOutput(Class<?> logClass, PureeOutput output) {
+        checkIfPureeHasInitialized();
+        logger.addOutput(logClass, output);
+    }
+
+    /**
+     * Stop sending logs of the class to an output. Logs already buffered by the output are kept.
+     */
+    public static void removeOutput(Class<?> logClass, PureeOutput output) {
+        checkIfPureeHasInitialized();
+        logger.removeOutput(logClass, output);
+    }
+
     public static Executor getExecutor() {
         return logger.getExecutor();
     }
@@ -1,5 +1,6 @@
 package com.cookpad.puree;
 
+import com.cookpad.puree.internal.ExecutorLanes;
 import com.cookpad.puree.internal.LogDumper;
 import com.cookpad.puree.outputs.PureeOutput;
 import com.cookpad.puree.storage.PureeSQLiteStorage;
@@ -15,21 +16,33 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
 public class PureeConfiguration {
 
+    static final long DEFAULT_RATE_LIMIT_SUMMARY_INTERVAL_MILLIS = 60 * 1000;
+
     private final Context context;
 
     private final PureeSerializer pureeSerializer;
 
     private final Map<Class<?>, List<PureeOutput>> sourceOutputMap;
 
+    private final Map<Class<?>, List<PureeLogFilter<?>>> logFilterMap;
+
+    private final Map<Class<?>, RateLimiter> rateLimiterMap;
+
+    private final long rateLimitSummaryIntervalMillis;
+
     private final PureeStorage storage;
 
     private final ScheduledExecutorService executor;
 
+    @Nullable
+    private final ExecutorLanes executorLanes;
+
     public Context getContext() {
         return context;
     }
@@ -38,6 +51,14 @@ public class PureeConfiguration {
         return sourceOutputMap;
     }
 
+    public Map<Class<?>, List<PureeLogFilter<?>>> getLogFilterMap() {
+        return logFilterMap;
+    }
+
+    public Map<Class<?>, RateLimiter> getRateLimiterMap() {
+        return rateLimiterMap;
+    }
+
     public PureeStorage getStorage() {
         return storage;
     }
@@ -47,17 +68,23 @@ public class PureeConfiguration {
     }
 
     public PureeLogger createPureeLogger() {
-        return new PureeLogger(sourceOutputMap, pureeSerializer, storage, executor);
+        return new PureeLogger(sourceOutputMap, logFilterMap, rateLimiterMap, rateLimitSummaryIntervalMillis,
+                pureeSerializer, storage, executor, executorLanes);
     }
 
-    PureeConfiguration(Context context, Map<Class<?>, List<PureeOutput>> sourceOutputMap, PureeSerializer pureeSerializer,
-            PureeStorage storage, ScheduledExecutorService executor) {
+    PureeConfiguration(Context context, Map<Class<?>, List<PureeOutput>> sourceOutputMap,
+            Map<Class<?>, List<PureeLogFilter<?>>> logFilterMap, Map<Class<?>, RateLimiter> rateLimiterMap,
+            long rateLimitSummaryIntervalMillis, PureeSerializer pureeSerializer, PureeStorage storage,
+            ScheduledExecutorService executor, @Nullable ExecutorLanes executorLanes) {
         this.context = context;
         this.pureeSerializer = pureeSerializer;
         this.sourceOutputMap = sourceOutputMap;
+        this.logFilterMap = logFilterMap;
+        this.rateLimiterMap = rateLimiterMap;
+        this.rateLimitSummaryIntervalMillis = rateLimitSummaryIntervalMillis;
         this.storage = storage;
         this.executor = executor;
-
+        this.executorLanes = executorLanes;
     }
 
     /**
@@ -74,10 +101,18 @@ public class PureeConfiguration {
 
         private Map<Class<?>, List<PureeOutput>> sourceOutputMap = new HashMap<>();
 
+        private Map<Class<?>, List<PureeLogFilter<?>>> logFilterMap = new HashMap<>();
+
+        private Map<Class<?>, RateLimiter> rateLimiterMap = new HashMap<>();
+
+        private long rateLimitSummaryIntervalMillis = DEFAULT_RATE_LIMIT_SUMMARY_INTERVAL_MILLIS;
+
         private PureeStorage storage;
 
         private ScheduledExecutorService executor;
 
+        private int executorLaneCount = 1;
+
         /**
          * Start building a new {@link com.cookpad.puree.PureeConfiguration} instance.
          *
@@ -106,8 +141,8 @@ public class PureeConfiguration {
          * @param logClass log class.
          * @return {@link Source}.
          */
-        public Source source(Class<?> logClass) {
-            return new Source(this, logClass);
+        public <T> Source<T> source(Class<T> logClass) {
+            return new Source<>(this, logClass);
         }
 
         public Builder register(Class<?> logClass, PureeOutput output) {
@@ -120,6 +155,64 @@ public class PureeConfiguration {
             return this;
         }
 
+        /**
+         * Specify a {@link PureeLogFilter} that runs on logs of the class before they are serialized, for every
+         * output of the class. Log filters run in the order they are added. Adding the same instance for the class
+         * again has no effect, but an equal filter created again is added again.
+         *
+         * @param logClass log class.
+         * @param logFilter {@link PureeLogFilter}.
+         * @return {@link com.cookpad.puree.PureeConfiguration.Builder}.
+         */
+        public <T> Builder logFilter(Class<T> logClass, PureeLogFilter<T> logFilter) {
+            List<PureeLogFilter<?>> logFilters = logFilterMap.get(logClass);
+            if (logFilters == null) {
+                logFilters = new ArrayList<>();
+            }
+            for (PureeLogFilter<?> added : logFilters) {
+                if (added == logFilter) {
+                    // e.g. the same filter on every source(logClass) chain
+                    return this;
+                }
+            }
+            logFilters.add(logFilter);
+            logFilterMap.put(logClass, logFilters);
+            return this;
+        }
+
+        /**
+         * Limit logs of the class with a {@link RateLimiter} before they are routed. A class has one limiter for all
+         * its outputs; setting the same limit again, e.g. on every source(logClass) chain, keeps the limiter
+         * already set.
+         *
+         * @param logClass log class.
+         * @param rateLimiter {@link RateLimiter}.
+         * @return {@link com.cookpad.puree.PureeConfiguration.Builder}.
+         * @throws IllegalArgumentException if another limit is already set for the class.
+         */
+        public Builder rateLimiter(Class<?> logClass, RateLimiter rateLimiter) {
+            RateLimiter current = rateLimiterMap.get(logClass);
+            if (current != null) {
+                if (!current.hasSameLimitAs(rateLimiter)) {
+                    throw new IllegalArgumentException("Another rate limit is already set for " + logClass.getName());
+                }
+                return this;
+            }
+            rateLimiterMap.put(logClass, rateLimiter);
+            return this;
+        }
+
+        /**
+         * Specify the interval of {@link RateLimitSummaryLog}s, or 0 not to send them.
+         *
+         * @param intervalMillis interval in milliseconds.
+         * @return {@link com.cookpad.puree.PureeConfiguration.Builder}.
+         */
+        public Builder rateLimitSummaryInterval(long intervalMillis) {
+            this.rateLimitSummaryIntervalMillis = intervalMillis;
+            return this;
+        }
+
         public Builder storage(PureeStorage storage) {
             this.storage = storage;
             return this;
@@ -130,6 +223,19 @@ public class PureeConfiguration {
             return this;
         }
 
+        /**
+         * Run the work of outputs on this number of background threads instead of one. Each output type stays on
+         * one thread, so its logs are inserted and flushed in order, while outputs of different types run in
+         * parallel.
+         *
+         * @param laneCount number of threads.
+         * @return {@link com.cookpad.puree.PureeConfiguration.Builder}.
+         */
+        public Builder executorLanes(int laneCount) {
+            this.executorLaneCount = laneCount;
+            return this;
+        }
+
         /**
          * Create the {@link com.cookpad.puree.PureeConfiguration} instance.
          *
@@ -144,22 +250,45 @@ public class PureeConfiguration {
                 storage = new PureeSQLiteStorage(context);
             }
 
+            ExecutorLanes executorLanes = null;
+            if (executorLaneCount > 1) {
+                List<ScheduledExecutorService> lanes = new ArrayList<>(executorLaneCount);
+                for (int i = 0; i < executorLaneCount; i++) {
+                    lanes.add(newBackgroundExecutor("puree-" + i));
+                }
+                executorLanes = new ExecutorLanes(lanes);
+                if (executor == null) {
+                    executor = lanes.get(0);
+                }
+            }
+
             if (executor == null) {
                 executor = newBackgroundExecutor();
             }
-            return new PureeConfiguration(context, sourceOutputMap, pureeSerializer, storage, executor);
+            return new PureeConfiguration(context, sourceOutputMap, logFilterMap, rateLimiterMap,
+                    rateLimitSummaryIntervalMillis, pureeSerializer, storage, executor, executorLanes);
         }
     }
 
     static ScheduledExecutorService newBackgroundExecutor() {
-        return Executors.newScheduledThreadPool(1, new BackgroundThreadFactory());
+        return newBackgroundExecutor("puree");
+    }
+
+    static ScheduledExecutorService newBackgroundExecutor(String threadName) {
+        return Executors.newScheduledThreadPool(1, new BackgroundThreadFactory(threadName));
     }
 
     static class BackgroundThreadFactory implements ThreadFactory {
 
+        private final String threadName;
+
+        BackgroundThreadFactory(String threadName) {
+            this.threadName = threadName;
+        }
+
         @Override
         public Thread newThread(Runnable r) {
-            Thread thread = new Thread(r, "puree");
+            Thread thread = new Thread(r, threadName);
             thread.setPriority(Thread.MIN_PRIORITY);
             return thread;
         }
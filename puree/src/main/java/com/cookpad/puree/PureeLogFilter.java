@@ -0,0 +1,23 @@
+package com.cookpad.puree;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A filter that runs on a log object before it is serialized, once for all outputs of the log class.
+ * <p>
+ * Unlike {@link PureeFilter}, it can enrich a log without a JSON round trip, and a log that it drops is never
+ * serialized.
+ *
+ * @param <T> the log class.
+ */
+@ParametersAreNonnullByDefault
+public interface PureeLogFilter<T> {
+
+    /**
+     * @param log the log to filter.
+     * @return the log to serialize, which may be {@code log} itself or a replacement, or null to drop it.
+     */
+    @Nullable
+    T apply(T log);
+}
@@ -1,47 +1,179 @@
 package com.cookpad.puree;
 
+import com.cookpad.puree.internal.ExecutorLanes;
+import com.cookpad.puree.internal.WeightedFairScheduler;
 import com.cookpad.puree.outputs.PureeOutput;
 import com.cookpad.puree.storage.PureeStorage;
+import com.cookpad.puree.storage.PureeStorages;
+import com.cookpad.puree.storage.RecordStream;
 import com.cookpad.puree.storage.Records;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
 public class PureeLogger {
     private final PureeSerializer pureeSerializer;
 
-    final Map<Class<?>, List<PureeOutput>> sourceOutputMap = new HashMap<>();
+    final AtomicReference<Routing> routing;
 
     final PureeStorage storage;
 
     final ScheduledExecutorService executor;
 
+    @Nullable
+    final ExecutorLanes executorLanes;
+
+    private final Map<ScheduledExecutorService, WeightedFairScheduler> flushSchedulers = new IdentityHashMap<>();
+
+    // outputs initialized by this logger, including the ones removed from every log class that may still have
+    // buffered logs to flush
+    private final List<PureeOutput> initializedOutputs = new CopyOnWriteArrayList<>();
+
     public PureeLogger(Map<Class<?>, List<PureeOutput>> sourceOutputMap, PureeSerializer pureeSerializer, PureeStorage storage,
             ScheduledExecutorService executor) {
-        this.sourceOutputMap.putAll(sourceOutputMap);
+        this(sourceOutputMap, Collections.<Class<?>, List<PureeLogFilter<?>>>emptyMap(),
+                Collections.<Class<?>, RateLimiter>emptyMap(), 0, pureeSerializer, storage, executor);
+    }
+
+    public PureeLogger(Map<Class<?>, List<PureeOutput>> sourceOutputMap,
+            Map<Class<?>, List<PureeLogFilter<?>>> logFilterMap, Map<Class<?>, RateLimiter> rateLimiterMap,
+            long rateLimitSummaryIntervalMillis, PureeSerializer pureeSerializer, PureeStorage storage,
+            ScheduledExecutorService executor) {
+        this(sourceOutputMap, logFilterMap, rateLimiterMap, rateLimitSummaryIntervalMillis, pureeSerializer, storage,
+                executor, null);
+    }
+
+    /**
+     * @param executorLanes lanes that outputs run on by type instead of {@code executor}, or null.
+     */
+    public PureeLogger(Map<Class<?>, List<PureeOutput>> sourceOutputMap,
+            Map<Class<?>, List<PureeLogFilter<?>>> logFilterMap, Map<Class<?>, RateLimiter> rateLimiterMap,
+            long rateLimitSummaryIntervalMillis, PureeSerializer pureeSerializer, PureeStorage storage,
+            ScheduledExecutorService executor, @Nullable ExecutorLanes executorLanes) {
+        this.routing = new AtomicReference<>(new Routing(sourceOutputMap, logFilterMap, rateLimiterMap));
         this.pureeSerializer = pureeSerializer;
         this.storage = storage;
         this.executor = executor;
+        this.executorLanes = executorLanes;
 
-        forEachOutput(new PureeLogger.Consumer<PureeOutput>() {
-            @Override
-            public void accept(@Nonnull PureeOutput value) {
-                value.initialize(PureeLogger.this);
-            }
-        });
+        for (PureeOutput output : routing.get().outputs()) {
+            output.initialize(this);
+            initializedOutputs.add(output);
+        }
+
+        if (!rateLimiterMap.isEmpty() && rateLimitSummaryIntervalMillis > 0) {
+            executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    sendRateLimitSummaries();
+                }
+            }, rateLimitSummaryIntervalMillis, rateLimitSummaryIntervalMillis, TimeUnit.MILLISECONDS);
+        }
     }
 
+    /**
+     * Serialize the log once and hand the same payload to every registered output.
+     * <p>
+     * Outputs, log filters and rate limiters registered for a superclass or an interface of the log apply to it
+     * too. A log without any output is ignored.
+     * <p>
+     * A log over the {@link RateLimiter} of its class is dropped first. {@link PureeLogFilter}s of the log class
+     * run before serialization; a log dropped by one is not serialized.
+     * <p>
+     * Filters never modify the payload in place; an output only gets its own copy when one of its filters
+     * returns a new string.
+     * <p>
+     * Apart from serialization and log filters, sending to buffered outputs allocates nothing in the steady state,
+     * except to start an insert each time a full insert batch builds up within the insert window.
+     *
+     * @param log {@link Object}.
+     */
     public void send(Object log) {
-        List<PureeOutput> outputs = getRegisteredOutputPlugins(log);
-        for (PureeOutput output : outputs) {
-            output.receive(serializeLog(log));
+        Route route = resolveRoute(log.getClass());
+        if (route == Route.NONE) {
+            return;
+        }
+        if (route.rateLimiter != null && !route.rateLimiter.tryAcquire()) {
+            return;
+        }
+        Object filteredLog = applyLogFilters(route, log);
+        if (filteredLog == null) {
+            return;
+        }
+        String jsonLog = serializeLog(filteredLog);
+        // indexed loops so that sending doesn't allocate iterators
+        List<PureeOutput> outputs = route.outputs;
+        for (int i = 0; i < outputs.size(); i++) {
+            outputs.get(i).receive(jsonLog);
+        }
+    }
+
+    @Nonnull
+    Route resolveRoute(Class<?> logClass) {
+        return routing.get().resolve(logClass);
+    }
+
+    /**
+     * Send logs of the class and its subclasses to an output as well, without stopping {@link #send(Object)}.
+     * The output is initialized if it is new to this logger; an output that was removed is not initialized again.
+     *
+     * @param logClass log class.
+     * @param output {@link PureeOutput}.
+     */
+    public synchronized void addOutput(Class<?> logClass, PureeOutput output) {
+        if (!initializedOutputs.contains(output)) {
+            output.initialize(this);
+            initializedOutputs.add(output);
+        }
+        routing.set(routing.get().withOutput(logClass, output));
+    }
+
+    /**
+     * Stop sending logs of the class to an output, without stopping {@link #send(Object)}. Logs that the output
+     * has buffered are kept, and are flushed by the output as before; {@link #flush()} still reaches the output
+     * after it is removed from every log class.
+     *
+     * @param logClass log class.
+     * @param output {@link PureeOutput}.
+     */
+    public synchronized void removeOutput(Class<?> logClass, PureeOutput output) {
+        routing.set(routing.get().withoutOutput(logClass, output));
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    static Object applyLogFilters(Route route, Object log) {
+        Object filteredLog = log;
+        List<PureeLogFilter<?>> logFilters = route.logFilters;
+        for (int i = 0; i < logFilters.size(); i++) {
+            filteredLog = ((PureeLogFilter<Object>) logFilters.get(i)).apply(filteredLog);
+            if (filteredLog == null) {
+                return null;
+            }
+        }
+        return filteredLog;
+    }
+
+    void sendRateLimitSummaries() {
+        if (resolveRoute(RateLimitSummaryLog.class) == Route.NONE) {
+            return;
+        }
+        for (Map.Entry<Class<?>, RateLimiter> entry : routing.get().rateLimiterMap.entrySet()) {
+            RateLimitSummaryLog summary = entry.getValue().summarize(entry.getKey());
+            if (summary != null) {
+                send(summary);
+            }
         }
     }
 
@@ -53,10 +185,40 @@ public class PureeLogger {
         return executor;
     }
 
+    /**
+     * @param type type of the output.
+     * @return the executor that the output of the type should run its work on, in order.
+     */
+    public ScheduledExecutorService getExecutor(String type) {
+        return executorLanes != null ? executorLanes.laneFor(type) : executor;
+    }
+
+    /**
+     * @param type type of the output.
+     * @return the scheduler that interleaves the flushes of outputs sharing the executor of the type.
+     */
+    public synchronized WeightedFairScheduler getFlushScheduler(String type) {
+        ScheduledExecutorService executor = getExecutor(type);
+        WeightedFairScheduler scheduler = flushSchedulers.get(executor);
+        if (scheduler == null) {
+            scheduler = new WeightedFairScheduler(executor);
+            flushSchedulers.put(executor, scheduler);
+        }
+        return scheduler;
+    }
+
     public Records getBufferedLogs() {
         return storage.selectAll();
     }
 
+    public Records getBufferedLogs(int afterId, int limit) {
+        return PureeStorages.selectAllAfter(storage, afterId, limit);
+    }
+
+    public RecordStream streamBufferedLogs() {
+        return PureeStorages.streamAll(storage);
+    }
+
     public void discardBufferedLogs() {
         storage.clear();
     }
@@ -90,13 +252,13 @@ public class PureeLogger {
         return getRegisteredOutputPlugins(log.getClass());
     }
 
+    /**
+     * @param logClass log class.
+     * @return outputs registered for the class, its superclasses and its interfaces; empty if there is none.
+     */
     @Nonnull
     public List<PureeOutput> getRegisteredOutputPlugins(Class<?> logClass) {
-        List<PureeOutput> outputs = sourceOutputMap.get(logClass);
-        if (outputs == null) {
-            throw new NoRegisteredOutputPluginException("No output plugin registered for " + logClass);
-        }
-        return outputs;
+        return resolveRoute(logClass).outputs;
     }
 
     public interface Consumer<T> {
@@ -104,14 +266,21 @@ public class PureeLogger {
         void accept(@Nonnull T value);
     }
 
+    /**
+     * Visit every output initialized by this logger, including the ones removed from every log class.
+     *
+     * @param f consumer.
+     */
     public void forEachOutput(Consumer<PureeOutput> f) {
-        for (List<PureeOutput> outputs : new HashSet<>(sourceOutputMap.values())) {
-            for (PureeOutput output : outputs) {
-                f.accept(output);
-            }
+        for (PureeOutput output : initializedOutputs) {
+            f.accept(output);
         }
     }
 
+    /**
+     * @deprecated logs without any output are ignored instead.
+     */
+    @Deprecated
     public static class NoRegisteredOutputPluginException extends IllegalStateException {
 
         public NoRegisteredOutputPluginException(String detailMessage) {
@@ -0,0 +1,39 @@
+package com.cookpad.puree;
+
+/**
+ * A log that {@link PureeLogger} sends periodically for each rate-limited log class, with the counts since the
+ * previous summary. It is sent only if an output is registered for this class.
+ *
+ * @see PureeConfiguration.Builder#rateLimitSummaryInterval(long)
+ */
+public class RateLimitSummaryLog {
+
+    private final String logClass;
+
+    private final long admitted;
+
+    private final long dropped;
+
+    public RateLimitSummaryLog(String logClass, long admitted, long dropped) {
+        this.logClass = logClass;
+        this.admitted = admitted;
+        this.dropped = dropped;
+    }
+
+    public String getLogClass() {
+        return logClass;
+    }
+
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        return "{\"logClass\":\"" + logClass + "\",\"admitted\":" + admitted + ",\"dropped\":" + dropped + "}";
+    }
+}
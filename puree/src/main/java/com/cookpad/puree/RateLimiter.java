@@ -0,0 +1,103 @@
+package com.cookpad.puree;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A token bucket that limits the logs of a class, with counters of admitted and dropped logs.
+ * <p>
+ * It is lock-free: the bucket is kept as the time at which it is full again, updated with compare-and-set.
+ *
+ * @see Source#rateLimit(double, int)
+ */
+@ParametersAreNonnullByDefault
+public class RateLimiter {
+
+    private final long intervalNanos;
+
+    private final long toleranceNanos;
+
+    private final AtomicLong fullAt;
+
+    private final AtomicLong admittedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private long reportedAdmittedCount = 0;
+
+    private long reportedDroppedCount = 0;
+
+    /**
+     * @param logsPerSecond the rate at which the bucket is refilled.
+     * @param burst the size of the bucket, i.e. the number of logs admitted at once after a quiet period.
+     */
+    public RateLimiter(double logsPerSecond, int burst) {
+        this(logsPerSecond, burst, System.nanoTime());
+    }
+
+    RateLimiter(double logsPerSecond, int burst, long nowNanos) {
+        if (!(logsPerSecond > 0) || burst <= 0) {
+            throw new IllegalArgumentException("logsPerSecond: " + logsPerSecond + ", burst: " + burst);
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / logsPerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.fullAt = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * @return true if the other limiter has the same rate and burst.
+     */
+    boolean hasSameLimitAs(RateLimiter other) {
+        return intervalNanos == other.intervalNanos && toleranceNanos == other.toleranceNanos;
+    }
+
+    /**
+     * @return true if a log is admitted.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long nowNanos) {
+        for (;;) {
+            long current = fullAt.get();
+            long start = current - nowNanos < 0 ? nowNanos : current;
+            if (start - nowNanos > toleranceNanos) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            if (fullAt.compareAndSet(current, start + intervalNanos)) {
+                admittedCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the counts since the previous summary, or null if there was no log.
+     */
+    @Nullable
+    synchronized RateLimitSummaryLog summarize(Class<?> logClass) {
+        long admitted = admittedCount.get();
+        long dropped = droppedCount.get();
+        if (admitted == reportedAdmittedCount && dropped == reportedDroppedCount) {
+            return null;
+        }
+        RateLimitSummaryLog summary = new RateLimitSummaryLog(logClass.getName(),
+                admitted - reportedAdmittedCount, dropped - reportedDroppedCount);
+        reportedAdmittedCount = admitted;
+        reportedDroppedCount = dropped;
+        return summary;
+    }
+}
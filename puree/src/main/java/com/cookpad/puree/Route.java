@@ -0,0 +1,92 @@
+package com.cookpad.puree;
+
+import com.cookpad.puree.outputs.PureeOutput;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * What {@link PureeLogger#send(Object)} does with logs of a concrete class: the outputs, log filters and rate
+ * limiter registered for the class and any of its superclasses and interfaces.
+ */
+@ParametersAreNonnullByDefault
+final class Route {
+
+    static final Route NONE = new Route(Collections.<PureeOutput>emptyList(),
+            Collections.<PureeLogFilter<?>>emptyList(), null);
+
+    final List<PureeOutput> outputs;
+
+    final List<PureeLogFilter<?>> logFilters;
+
+    @Nullable
+    final RateLimiter rateLimiter;
+
+    Route(List<PureeOutput> outputs, List<PureeLogFilter<?>> logFilters, @Nullable RateLimiter rateLimiter) {
+        this.outputs = outputs;
+        this.logFilters = logFilters;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Resolve the route of a concrete class. Registrations of the class itself come first, then those of its
+     * supertypes from the nearest; the nearest rate limiter wins.
+     */
+    static Route resolve(Class<?> logClass, Map<Class<?>, List<PureeOutput>> sourceOutputMap,
+            Map<Class<?>, List<PureeLogFilter<?>>> logFilterMap, Map<Class<?>, RateLimiter> rateLimiterMap) {
+        List<PureeOutput> outputs = new ArrayList<>();
+        List<PureeLogFilter<?>> logFilters = new ArrayList<>();
+        RateLimiter rateLimiter = null;
+        for (Class<?> type : supertypes(logClass)) {
+            List<PureeOutput> typeOutputs = sourceOutputMap.get(type);
+            if (typeOutputs != null) {
+                for (PureeOutput output : typeOutputs) {
+                    if (!outputs.contains(output)) {
+                        outputs.add(output);
+                    }
+                }
+            }
+            List<PureeLogFilter<?>> typeLogFilters = logFilterMap.get(type);
+            if (typeLogFilters != null) {
+                logFilters.addAll(typeLogFilters);
+            }
+            if (rateLimiter == null) {
+                rateLimiter = rateLimiterMap.get(type);
+            }
+        }
+        if (outputs.isEmpty()) {
+            return NONE;
+        }
+        return new Route(Collections.unmodifiableList(outputs), Collections.unmodifiableList(logFilters),
+                rateLimiter);
+    }
+
+    /**
+     * @return the class and all of its superclasses and interfaces, breadth first.
+     */
+    static Set<Class<?>> supertypes(Class<?> logClass) {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        Deque<Class<?>> queue = new ArrayDeque<>();
+        queue.add(logClass);
+        while (!queue.isEmpty()) {
+            Class<?> type = queue.remove();
+            if (!types.add(type)) {
+                continue;
+            }
+            if (type.getSuperclass() != null) {
+                queue.add(type.getSuperclass());
+            }
+            Collections.addAll(queue, type.getInterfaces());
+        }
+        return types;
+    }
+}
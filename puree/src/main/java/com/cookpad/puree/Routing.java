@@ -0,0 +1,98 @@
+package com.cookpad.puree;
+
+import com.cookpad.puree.outputs.PureeOutput;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * An immutable snapshot of what {@link PureeLogger} sends where. Changes make a new snapshot, so that
+ * {@link PureeLogger#send(Object)} can read one without locking.
+ */
+@ParametersAreNonnullByDefault
+final class Routing {
+
+    final Map<Class<?>, List<PureeOutput>> sourceOutputMap;
+
+    final Map<Class<?>, List<PureeLogFilter<?>>> logFilterMap;
+
+    final Map<Class<?>, RateLimiter> rateLimiterMap;
+
+    // resolved routes by concrete class, filled on first send
+    private final ConcurrentMap<Class<?>, Route> routes = new ConcurrentHashMap<>();
+
+    Routing(Map<Class<?>, List<PureeOutput>> sourceOutputMap, Map<Class<?>, List<PureeLogFilter<?>>> logFilterMap,
+            Map<Class<?>, RateLimiter> rateLimiterMap) {
+        this.sourceOutputMap = Collections.unmodifiableMap(copy(sourceOutputMap));
+        this.logFilterMap = Collections.unmodifiableMap(copy(logFilterMap));
+        this.rateLimiterMap = Collections.unmodifiableMap(new HashMap<>(rateLimiterMap));
+    }
+
+    @Nonnull
+    Route resolve(Class<?> logClass) {
+        Route route = routes.get(logClass);
+        if (route == null) {
+            route = Route.resolve(logClass, sourceOutputMap, logFilterMap, rateLimiterMap);
+            Route resolved = routes.putIfAbsent(logClass, route);
+            if (resolved != null) {
+                route = resolved;
+            }
+        }
+        return route;
+    }
+
+    /**
+     * @return every output, once each.
+     */
+    Set<PureeOutput> outputs() {
+        Set<PureeOutput> outputs = new LinkedHashSet<>();
+        for (List<PureeOutput> classOutputs : sourceOutputMap.values()) {
+            outputs.addAll(classOutputs);
+        }
+        return outputs;
+    }
+
+    Routing withOutput(Class<?> logClass, PureeOutput output) {
+        Map<Class<?>, List<PureeOutput>> newSourceOutputMap = new HashMap<>(sourceOutputMap);
+        List<PureeOutput> outputs = new ArrayList<>();
+        if (sourceOutputMap.containsKey(logClass)) {
+            outputs.addAll(sourceOutputMap.get(logClass));
+        }
+        outputs.add(output);
+        newSourceOutputMap.put(logClass, outputs);
+        return new Routing(newSourceOutputMap, logFilterMap, rateLimiterMap);
+    }
+
+    Routing withoutOutput(Class<?> logClass, PureeOutput output) {
+        if (!sourceOutputMap.containsKey(logClass)) {
+            return this;
+        }
+        Map<Class<?>, List<PureeOutput>> newSourceOutputMap = new HashMap<>(sourceOutputMap);
+        List<PureeOutput> outputs = new ArrayList<>(sourceOutputMap.get(logClass));
+        outputs.remove(output);
+        if (outputs.isEmpty()) {
+            newSourceOutputMap.remove(logClass);
+        } else {
+            newSourceOutputMap.put(logClass, outputs);
+        }
+        return new Routing(newSourceOutputMap, logFilterMap, rateLimiterMap);
+    }
+
+    private static <T> Map<Class<?>, List<T>> copy(Map<Class<?>, List<T>> map) {
+        Map<Class<?>, List<T>> copy = new HashMap<>();
+        for (Map.Entry<Class<?>, List<T>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        return copy;
+    }
+}
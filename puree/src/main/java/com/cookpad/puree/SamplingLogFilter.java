@@ -0,0 +1,73 @@
+package com.cookpad.puree;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A {@link PureeLogFilter} that keeps a fixed fraction of logs, decided by a hash of a key such as a session id.
+ * <p>
+ * Logs with the same key are either all kept or all dropped, and a key kept at a rate is also kept at any
+ * higher rate. Logs without a key are always kept.
+ *
+ * @param <T> the log class.
+ * @see Source#sample(double, KeyProvider)
+ */
+@ParametersAreNonnullByDefault
+public class SamplingLogFilter<T> implements PureeLogFilter<T> {
+
+    public interface KeyProvider<T> {
+
+        @Nullable
+        String keyOf(T log);
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final KeyProvider<T> keyProvider;
+
+    // a log is kept if the top 53 bits of the hash of its key are below this
+    private final long threshold;
+
+    /**
+     * @param rate the fraction of keys to keep, from 0 to 1.
+     * @param keyProvider {@link KeyProvider}.
+     */
+    public SamplingLogFilter(double rate, KeyProvider<T> keyProvider) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("rate must be between 0 and 1: " + rate);
+        }
+        this.keyProvider = keyProvider;
+        this.threshold = (long) (rate * (1L << 53));
+    }
+
+    @Nullable
+    @Override
+    public T apply(T log) {
+        String key = keyProvider.keyOf(log);
+        if (key == null || (hash(key) >>> 11) < threshold) {
+            return log;
+        }
+        return null;
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-16 code units, followed by the MurmurHash3 finalizer so that the high bits are
+     * uniform for short keys. Stable across processes and releases.
+     */
+    static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -6,13 +6,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-public class Source {
+public class Source<T> {
     private PureeConfiguration.Builder builder;
 
-    private Class<?> logClass;
+    private Class<T> logClass;
     private List<PureeFilter> filters = new ArrayList<>();
+    private List<PureeLogFilter<T>> logFilters = new ArrayList<>();
+    private RateLimiter rateLimiter;
 
-    public Source(PureeConfiguration.Builder builder, Class<?> logClass) {
+    public Source(PureeConfiguration.Builder builder, Class<T> logClass) {
         this.builder = builder;
         this.logClass = logClass;
     }
@@ -23,7 +25,7 @@ public class Source {
      * @param filter {@link PureeFilter}.
      * @return {@link Source}.
      */
-    public Source filter(PureeFilter filter) {
+    public Source<T> filter(PureeFilter filter) {
         filters.add(filter);
         return this;
     }
@@ -34,11 +36,53 @@ public class Source {
      * @param filters {@link PureeFilter} list.
      * @return {@link Source}.
      */
-    public Source filters(PureeFilter... filters) {
+    public Source<T> filters(PureeFilter... filters) {
         this.filters.addAll(Arrays.asList(filters));
         return this;
     }
 
+    /**
+     * Specify the {@link com.cookpad.puree.PureeLogFilter}, which runs before serialization and applies to every
+     * output of the log class, not only to the output of this source. Specifying the same instance on another
+     * source of the class has no effect; a new instance runs again.
+     *
+     * @param logFilter {@link PureeLogFilter}.
+     * @return {@link Source}.
+     */
+    public Source<T> logFilter(PureeLogFilter<T> logFilter) {
+        logFilters.add(logFilter);
+        return this;
+    }
+
+    /**
+     * Keep only a fraction of logs, decided by a hash of a key before the logs are serialized. Like
+     * {@link #logFilter(PureeLogFilter)}, it applies to every output of the log class; add it first so that
+     * dropped logs skip the other log filters too. Each call adds another sampler, so sample a log class on one
+     * source only.
+     *
+     * @param rate the fraction of keys to keep, from 0 to 1.
+     * @param keyProvider returns the key of a log, e.g. a session id.
+     * @return {@link Source}.
+     */
+    public Source<T> sample(double rate, SamplingLogFilter.KeyProvider<T> keyProvider) {
+        return logFilter(new SamplingLogFilter<>(rate, keyProvider));
+    }
+
+    /**
+     * Limit logs of the class with a token bucket before they are routed; logs over the limit are dropped. It
+     * applies to every output of the log class, so other sources of the class must set the same limit or none.
+     *
+     * @param logsPerSecond the rate at which the bucket is refilled.
+     * @param burst the size of the bucket.
+     * @return {@link Source}.
+     * @see RateLimitSummaryLog
+     * @see PureeConfiguration.Builder#rateLimiter(Class, RateLimiter)
+     */
+    public Source<T> rateLimit(double logsPerSecond, int burst) {
+        rateLimiter = new RateLimiter(logsPerSecond, burst);
+        return this;
+    }
+
     /**
      * Specify the {@link com.cookpad.puree.outputs.PureeOutput} that is responded to source.
      *
@@ -46,6 +90,12 @@ public class Source {
      * @return {@link com.cookpad.puree.PureeConfiguration.Builder}.
      */
     public PureeConfiguration.Builder to(PureeOutput output) {
+        if (rateLimiter != null) {
+            builder.rateLimiter(logClass, rateLimiter);
+        }
+        for (PureeLogFilter<T> logFilter : logFilters) {
+            builder.logFilter(logClass, logFilter);
+        }
         builder.register(logClass, output.withFilters(filters));
         return builder;
     }
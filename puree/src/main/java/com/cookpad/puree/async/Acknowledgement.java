@@ -0,0 +1,46 @@
+package com.cookpad.puree.async;
+
+import java.util.BitSet;
+
+/**
+ * The result of each log of an emitted batch, by its index in the list passed to emit. Logs that are neither
+ * retried nor rejected are accepted.
+ *
+ * @see BatchAsyncResult#acknowledge(Acknowledgement)
+ */
+public class Acknowledgement {
+
+    private final BitSet retried = new BitSet();
+
+    private final BitSet rejected = new BitSet();
+
+    /**
+     * Keep the log to send it again later.
+     */
+    public Acknowledgement retry(int index) {
+        retried.set(index);
+        rejected.clear(index);
+        return this;
+    }
+
+    /**
+     * Drop the log for good, e.g. because the server can't accept it.
+     */
+    public Acknowledgement reject(int index) {
+        rejected.set(index);
+        retried.clear(index);
+        return this;
+    }
+
+    public boolean isRetried(int index) {
+        return retried.get(index);
+    }
+
+    public boolean isRejected(int index) {
+        return rejected.get(index);
+    }
+
+    public boolean isAccepted(int index) {
+        return !retried.get(index) && !rejected.get(index);
+    }
+}
@@ -0,0 +1,14 @@
+package com.cookpad.puree.async;
+
+/**
+ * The {@link AsyncResult} that buffered outputs pass to emit, which can also acknowledge each log of the batch.
+ */
+public interface BatchAsyncResult extends AsyncResult {
+
+    /**
+     * Finish the batch: accepted and rejected logs are deleted, and retried logs are sent again later.
+     *
+     * @param acknowledgement {@link Acknowledgement}.
+     */
+    void acknowledge(Acknowledgement acknowledgement);
+}
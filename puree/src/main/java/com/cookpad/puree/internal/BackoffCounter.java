@@ -1,11 +1,16 @@
 package com.cookpad.puree.internal;
 
+import com.cookpad.puree.outputs.RetryPolicies;
+import com.cookpad.puree.outputs.RetryPolicy;
+
 public class BackoffCounter {
 
     private final int baseTimeMillis;
 
     private final int maxRetryCount;
 
+    private final RetryPolicy retryPolicy;
+
     private int retryCount = 0;
 
     public int getRetryCount() {
@@ -13,8 +18,13 @@ public class BackoffCounter {
     }
 
     public BackoffCounter(int baseTimeMillis, int maxRetryCount) {
+        this(baseTimeMillis, maxRetryCount, RetryPolicies.LINEAR);
+    }
+
+    public BackoffCounter(int baseTimeMillis, int maxRetryCount, RetryPolicy retryPolicy) {
         this.baseTimeMillis = baseTimeMillis;
         this.maxRetryCount = maxRetryCount;
+        this.retryPolicy = retryPolicy;
     }
 
     public boolean isRemainingRetryCount() {
@@ -33,7 +43,7 @@ public class BackoffCounter {
         if (retryCount == 0) {
             return baseTimeMillis;
         } else {
-            return baseTimeMillis * (retryCount + 1);
+            return retryPolicy.delayMillis(baseTimeMillis, retryCount);
         }
     }
 }
@@ -0,0 +1,61 @@
+package com.cookpad.puree.internal;
+
+/**
+ * Sizes the batches of a buffered output by additive increase and multiplicative decrease.
+ * <p>
+ * The size grows by the min size after each full batch that was emitted within the target latency, so that a
+ * fast link gets bigger requests. It is halved after a failure, a timeout or a slow batch, so that a flaky link
+ * gets requests small enough to go through.
+ */
+public class BatchSizeController {
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long targetLatencyMillis;
+
+    private int size;
+
+    /**
+     * @param initialSize size of the first batches; clamped to the bounds.
+     * @param minSize min size, or 0 to keep {@code initialSize} fixed.
+     * @param maxSize max size, or 0 to keep {@code initialSize} fixed.
+     * @param targetLatencyMillis the longest emit that still lets the size grow.
+     */
+    public BatchSizeController(int initialSize, int minSize, int maxSize, long targetLatencyMillis) {
+        if (minSize <= 0 || maxSize < minSize) {
+            minSize = initialSize;
+            maxSize = initialSize;
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.size = Math.max(minSize, Math.min(maxSize, initialSize));
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * @param batchSize number of logs in the batch.
+     * @param latencyMillis how long the emit took.
+     */
+    public synchronized void onSuccess(int batchSize, long latencyMillis) {
+        if (latencyMillis > targetLatencyMillis) {
+            decrease();
+        } else if (batchSize >= size) {
+            // a batch smaller than the size says nothing about a bigger one
+            size = Math.min(maxSize, size + minSize);
+        }
+    }
+
+    public synchronized void onFailure() {
+        decrease();
+    }
+
+    private void decrease() {
+        size = Math.max(minSize, size / 2);
+    }
+}
@@ -0,0 +1,68 @@
+package com.cookpad.puree.internal;
+
+/**
+ * A circuit breaker for a buffered output.
+ * <p>
+ * It opens after a number of consecutive failed flushes, which stops the output from selecting and emitting
+ * logs. Once open long enough it is half-open: one small batch is sent as a probe, which closes it on success or
+ * opens it again on failure.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+
+    private int failureCount = 0;
+
+    private long openedAtMillis;
+
+    /**
+     * @param failureThreshold consecutive failures that open the breaker, or 0 to never open it.
+     * @param openMillis how long the breaker stays open before a probe.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return false while open; otherwise true, moving an open breaker whose time is up to half-open.
+     */
+    public synchronized boolean allowRequest(long nowMillis) {
+        if (state == State.OPEN) {
+            if (nowMillis - openedAtMillis < openMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+        }
+        return true;
+    }
+
+    public synchronized long remainingOpenMillis(long nowMillis) {
+        return state == State.OPEN ? Math.max(0, openedAtMillis + openMillis - nowMillis) : 0;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failureCount = 0;
+    }
+
+    public synchronized void onFailure(long nowMillis) {
+        failureCount++;
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && failureCount >= failureThreshold)) {
+            state = State.OPEN;
+            openedAtMillis = nowMillis;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
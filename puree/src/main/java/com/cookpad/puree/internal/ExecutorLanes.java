@@ -0,0 +1,60 @@
+package com.cookpad.puree.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Single-threaded executors that outputs are pinned to by type, so that the work of a type runs in order while
+ * outputs of different types run in parallel.
+ * <p>
+ * A type gets the least used lane the first time it asks and keeps it. Hashing the types instead would often put
+ * two of a handful of outputs on the same lane.
+ */
+@ParametersAreNonnullByDefault
+public class ExecutorLanes {
+
+    private final List<ScheduledExecutorService> lanes;
+
+    private final int[] typeCounts;
+
+    private final Map<String, Integer> laneIndexes = new HashMap<>();
+
+    /**
+     * @param lanes single-threaded executors.
+     */
+    public ExecutorLanes(List<ScheduledExecutorService> lanes) {
+        if (lanes.isEmpty()) {
+            throw new IllegalArgumentException("No lanes");
+        }
+        this.lanes = new ArrayList<>(lanes);
+        this.typeCounts = new int[lanes.size()];
+    }
+
+    /**
+     * @param type type of the output.
+     * @return the lane of the type, always the same one for the same type.
+     */
+    public synchronized ScheduledExecutorService laneFor(String type) {
+        Integer index = laneIndexes.get(type);
+        if (index == null) {
+            index = 0;
+            for (int i = 1; i < typeCounts.length; i++) {
+                if (typeCounts[i] < typeCounts[index]) {
+                    index = i;
+                }
+            }
+            typeCounts[index]++;
+            laneIndexes.put(type, index);
+        }
+        return lanes.get(index);
+    }
+
+    public int size() {
+        return lanes.size();
+    }
+}
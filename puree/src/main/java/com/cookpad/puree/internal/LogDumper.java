@@ -2,6 +2,8 @@ package com.cookpad.puree.internal;
 
 import com.cookpad.puree.PureeFilter;
 import com.cookpad.puree.outputs.PureeOutput;
+import com.cookpad.puree.storage.Record;
+import com.cookpad.puree.storage.RecordStream;
 import com.cookpad.puree.storage.Records;
 
 import android.util.Log;
@@ -20,18 +22,32 @@ public class LogDumper {
                 return;
             case 1:
                 Log.d(TAG, "1 record in Puree's buffer" + "\n"
-                        + records.getJsonLogs().get(0));
+                        + records.getJsonLogsView().get(0));
+                return;
             default:
                 StringBuilder builder = new StringBuilder();
                 int size = records.size();
                 builder.append(size).append(" records in Puree's buffer\n");
                 for (int i = 0; i < size; i++) {
-                    builder.append(records.getJsonLogs().get(0)).append("\n");
+                    builder.append(records.getJsonLogsView().get(i)).append("\n");
                 }
                 Log.d(TAG, builder.substring(0, builder.length() - 1));
         }
     }
 
+    public static void out(RecordStream records) {
+        int count = 0;
+        for (Record record : records) {
+            Log.d(TAG, record.getJsonLog());
+            count++;
+        }
+        if (count == 0) {
+            Log.d(TAG, "No records in Puree's buffer");
+        } else {
+            Log.d(TAG, count + " records in Puree's buffer");
+        }
+    }
+
     public static void out(Map<Class<?>, List<PureeOutput>> sourceOutputMap) {
         Log.i(TAG, "# SOURCE -> FILTER... -> OUTPUT");
         for (Class<?> key : sourceOutputMap.keySet()) {
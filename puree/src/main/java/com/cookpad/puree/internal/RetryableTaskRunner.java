@@ -1,5 +1,8 @@
 package com.cookpad.puree.internal;
 
+import com.cookpad.puree.outputs.RetryPolicies;
+import com.cookpad.puree.outputs.RetryPolicy;
+
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -15,7 +18,12 @@ public class RetryableTaskRunner {
     private ScheduledFuture<?> future;
 
     public RetryableTaskRunner(final Runnable task, int intervalMillis, int maxRetryCount, ScheduledExecutorService executor) {
-        this.backoffCounter = new BackoffCounter(intervalMillis, maxRetryCount);
+        this(task, intervalMillis, maxRetryCount, RetryPolicies.LINEAR, executor);
+    }
+
+    public RetryableTaskRunner(final Runnable task, int intervalMillis, int maxRetryCount, RetryPolicy retryPolicy,
+            ScheduledExecutorService executor) {
+        this.backoffCounter = new BackoffCounter(intervalMillis, maxRetryCount, retryPolicy);
         this.executor = executor;
         this.task = task;
         this.future = null;
@@ -29,11 +37,45 @@ public class RetryableTaskRunner {
         startDelayed();
     }
 
+    /**
+     * Start the task after the given delay instead of the base interval, unless it is already scheduled.
+     */
+    public synchronized void tryToStart(long delayMillis) {
+        if (future != null) {
+            return;
+        }
+        backoffCounter.resetRetryCount();
+        startDelayed(delayMillis);
+    }
+
+    /**
+     * Start the task as soon as possible, unless it is waiting to retry a failure.
+     */
+    public synchronized void tryToStartNow() {
+        if (future != null && backoffCounter.getRetryCount() > 0) {
+            return;
+        }
+        backoffCounter.resetRetryCount();
+        startDelayed(0);
+    }
+
+    /**
+     * Start the task after the given delay, replacing any scheduled run and retry.
+     */
+    public synchronized void startAfter(long delayMillis) {
+        backoffCounter.resetRetryCount();
+        startDelayed(delayMillis);
+    }
+
     private void startDelayed() {
+        startDelayed(backoffCounter.timeInMillis());
+    }
+
+    private void startDelayed(long delayMillis) {
         if (future != null) {
             future.cancel(false);
         }
-        future = executor.schedule(task, backoffCounter.timeInMillis(), TimeUnit.MILLISECONDS);
+        future = executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
     }
 
     public synchronized void reset() {
@@ -0,0 +1,151 @@
+package com.cookpad.puree.internal;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Interleaves the tasks of flows that share an executor by their weights, with stride scheduling.
+ * <p>
+ * Each run of a flow's task advances the flow's pass by a stride inversely proportional to its weight, and the
+ * pending flow with the lowest pass runs next, one task per executor task. So a flow that requests again and
+ * again gets a share of runs proportional to its weight, and a flow that has been idle runs before the busy ones
+ * as soon as the running task ends.
+ */
+@ParametersAreNonnullByDefault
+public class WeightedFairScheduler {
+
+    private static final long STRIDE = 1 << 20;
+
+    private final Executor executor;
+
+    private final PriorityQueue<Flow> pendingFlows = new PriorityQueue<>(8, new Comparator<Flow>() {
+        @Override
+        public int compare(Flow lhs, Flow rhs) {
+            if (lhs.pass != rhs.pass) {
+                return lhs.pass < rhs.pass ? -1 : 1;
+            }
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    });
+
+    private final Runnable dispatcher = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    private long virtualTime = 0;
+
+    private long sequence = 0;
+
+    private boolean dispatching = false;
+
+    public WeightedFairScheduler(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param weight share of runs relative to other flows, at least 1.
+     * @param task task to run each time the flow is requested.
+     * @return {@link Flow}.
+     */
+    public Flow newFlow(int weight, Runnable task) {
+        return new Flow(Math.max(1, weight), task);
+    }
+
+    synchronized void setWeight(Flow flow, int weight) {
+        long stride = STRIDE / Math.max(1, weight);
+        if (stride == flow.stride) {
+            return;
+        }
+        // scale what the flow has run ahead of the others, so the new weight counts from the next run
+        long lag = Math.max(0, flow.pass - virtualTime);
+        boolean pending = flow.pending && pendingFlows.remove(flow);
+        flow.pass = virtualTime + lag * stride / flow.stride;
+        flow.stride = stride;
+        if (pending) {
+            pendingFlows.add(flow);
+        }
+    }
+
+    synchronized void request(Flow flow) {
+        if (flow.pending) {
+            return;
+        }
+        flow.pending = true;
+        // an idle flow doesn't save up runs
+        flow.pass = Math.max(flow.pass, virtualTime);
+        flow.sequence = sequence++;
+        pendingFlows.add(flow);
+        if (!dispatching) {
+            dispatching = true;
+            executor.execute(dispatcher);
+        }
+    }
+
+    void dispatch() {
+        Flow flow;
+        synchronized (this) {
+            flow = pendingFlows.poll();
+            if (flow == null) {
+                dispatching = false;
+                return;
+            }
+            flow.pending = false;
+            virtualTime = flow.pass;
+            flow.pass += flow.stride;
+        }
+        try {
+            flow.task.run();
+        } finally {
+            synchronized (this) {
+                if (pendingFlows.isEmpty()) {
+                    dispatching = false;
+                } else {
+                    // let other work on the executor run between tasks
+                    executor.execute(dispatcher);
+                }
+            }
+        }
+    }
+
+    public final class Flow {
+
+        long stride;
+
+        final Runnable task;
+
+        long pass;
+
+        long sequence;
+
+        boolean pending = false;
+
+        Flow(int weight, Runnable task) {
+            this.stride = STRIDE / weight;
+            this.task = task;
+        }
+
+        /**
+         * Run the task once, after the tasks of flows that are ahead by weight. Requests made before the task
+         * runs are merged into one run.
+         */
+        public void request() {
+            WeightedFairScheduler.this.request(this);
+        }
+
+        /**
+         * Change the share of runs of the flow. It takes effect from the next run, including a run already
+         * requested.
+         *
+         * @param weight share of runs relative to other flows, at least 1.
+         */
+        public void setWeight(int weight) {
+            WeightedFairScheduler.this.setWeight(this, weight);
+        }
+    }
+}
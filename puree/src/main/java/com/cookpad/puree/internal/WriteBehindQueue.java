@@ -0,0 +1,298 @@
+package com.cookpad.puree.internal;
+
+import com.cookpad.puree.outputs.BackpressurePolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Gathers logs for a short window and hands them to a {@link Sink} as one batch, so that the storage can
+ * commit a burst of logs at once instead of one by one.
+ * <p>
+ * With a capacity, at most that many logs wait for the sink, plus the batch being written. Logs over it are
+ * handled by the {@link BackpressurePolicy}.
+ * <p>
+ * Logs wait in a preallocated ring of slots, and a single drain on the executor keeps writing batches as long as
+ * full ones are waiting. With a window, a drain that wrote logs schedules the next one itself, so that while logs
+ * keep coming, adding one allocates nothing once the ring has grown to the steady-state backlog; only a batch that
+ * fills up within the window starts a drain from {@link #add(String)}. A ring that grew for a burst shrinks again
+ * once drains take far fewer logs than it holds.
+ */
+@ParametersAreNonnullByDefault
+public class WriteBehindQueue {
+
+    public interface Sink {
+
+        void write(List<String> jsonLogs);
+    }
+
+    private static final int MIN_RING_SIZE = 16;
+
+    private final Sink sink;
+
+    private final ScheduledExecutorService executor;
+
+    private final int windowMillis;
+
+    private final int maxBatchSize;
+
+    private final int capacity;
+
+    private final int minRingSize;
+
+    private final BackpressurePolicy backpressurePolicy;
+
+    private final long backpressureTimeoutMillis;
+
+    private final Runnable drainTask = new PureeVerboseRunnable(new Runnable() {
+        @Override
+        public void run() {
+            executorThread = Thread.currentThread();
+            drain();
+        }
+    });
+
+    // the thread that runs the drain, which must not wait for room itself
+    private volatile Thread executorThread;
+
+    String[] ring;
+
+    // index of the oldest log, and the number of logs in the ring
+    private int head = 0;
+
+    private int size = 0;
+
+    private boolean drainScheduled = false;
+
+    private boolean drainQueued = false;
+
+    private long sampleCount = 0;
+
+    private long droppedCount = 0;
+
+    public WriteBehindQueue(Sink sink, ScheduledExecutorService executor, int windowMillis, int maxBatchSize) {
+        this(sink, executor, windowMillis, maxBatchSize, 0, BackpressurePolicy.DROP_NEWEST, 0);
+    }
+
+    /**
+     * @param capacity max number of logs waiting for the sink, or 0 for no limit.
+     * @param backpressurePolicy what to do with logs over the capacity.
+     * @param backpressureTimeoutMillis how long {@link BackpressurePolicy#BLOCK} waits for room.
+     */
+    public WriteBehindQueue(Sink sink, ScheduledExecutorService executor, int windowMillis, int maxBatchSize,
+            int capacity, BackpressurePolicy backpressurePolicy, long backpressureTimeoutMillis) {
+        this.sink = sink;
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.capacity = capacity;
+        this.backpressurePolicy = backpressurePolicy;
+        this.backpressureTimeoutMillis = backpressureTimeoutMillis;
+        this.minRingSize = capacity > 0 ? capacity : Math.max(MIN_RING_SIZE, maxBatchSize);
+        this.ring = new String[minRingSize];
+        if (capacity > 0 && backpressurePolicy == BackpressurePolicy.BLOCK) {
+            // know the thread before a task on it blocks, even if no drain has run yet
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    executorThread = Thread.currentThread();
+                }
+            });
+        }
+    }
+
+    public void add(String jsonLog) {
+        boolean drainNow;
+        boolean scheduleDrain;
+        synchronized (this) {
+            if (capacity > 0 && !makeRoom()) {
+                droppedCount++;
+                return;
+            }
+            if (size == ring.length) {
+                grow();
+            }
+            ring[(head + size) % ring.length] = jsonLog;
+            size++;
+            drainNow = (windowMillis <= 0 || size >= maxBatchSize) && !drainQueued;
+            scheduleDrain = !drainNow && !drainScheduled && !drainQueued;
+            if (drainNow) {
+                drainQueued = true;
+            }
+            if (scheduleDrain) {
+                drainScheduled = true;
+            }
+        }
+        if (drainNow) {
+            executor.execute(drainTask);
+        } else if (scheduleDrain) {
+            executor.schedule(drainTask, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true if the log should be added.
+     */
+    private boolean makeRoom() {
+        switch (backpressurePolicy) {
+            case DROP_OLDEST:
+                if (size >= capacity) {
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                    size--;
+                    droppedCount++;
+                }
+                return true;
+            case BLOCK:
+                if (Thread.currentThread() == executorThread) {
+                    // the drain would only run after the wait, so drop the log like DROP_NEWEST
+                    return size < capacity;
+                }
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backpressureTimeoutMillis);
+                while (size >= capacity) {
+                    long remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                return true;
+            case SAMPLE:
+                if (size >= capacity) {
+                    return false;
+                }
+                if (size < capacity / 2) {
+                    return true;
+                }
+                // one in 2 at half, one in 4 at three quarters, and so on
+                long stride = capacity / (capacity - size);
+                return sampleCount++ % stride == 0;
+            case DROP_NEWEST:
+            default:
+                return size < capacity;
+        }
+    }
+
+    private void grow() {
+        String[] grown = new String[ring.length * 2];
+        for (int i = 0; i < size; i++) {
+            grown[i] = ring[(head + i) % ring.length];
+        }
+        ring = grown;
+        head = 0;
+    }
+
+    /**
+     * Give back the memory of a ring that grew for a burst, once the drain emptied it of fewer logs than a quarter
+     * of it. The ring keeps room for twice the logs taken, so that logs coming at the same pace don't grow it again.
+     */
+    private void shrink(int taken) {
+        int length = ring.length;
+        while (length > minRingSize && taken < length / 4) {
+            length = Math.max(minRingSize, length / 2);
+        }
+        if (length < ring.length) {
+            ring = new String[length];
+        }
+    }
+
+    /**
+     * Write all pending logs to the sink on the calling thread. Batches that fill up while the sink is writing are
+     * written in the same call, so that adding logs doesn't have to start another drain.
+     */
+    public void drain() {
+        boolean scheduleDrain = false;
+        while (true) {
+            List<String> batch;
+            synchronized (this) {
+                drainScheduled = false;
+                if (size == 0) {
+                    drainQueued = false;
+                    break;
+                }
+                batch = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    int index = (head + i) % ring.length;
+                    batch.add(ring[index]);
+                    ring[index] = null;
+                }
+                head = 0;
+                size = 0;
+                shrink(batch.size());
+                // the drain goes on while this batch is written
+                drainQueued = true;
+                notifyAll();
+            }
+            boolean written = false;
+            try {
+                sink.write(batch);
+                written = true;
+            } finally {
+                if (!written) {
+                    synchronized (this) {
+                        requeue(batch);
+                        // the next add or drain starts over
+                        drainQueued = false;
+                        drainScheduled = false;
+                    }
+                }
+            }
+            synchronized (this) {
+                if (windowMillis <= 0 || size >= maxBatchSize) {
+                    continue;
+                }
+                drainQueued = false;
+                // logs are likely to keep coming, and adding them shouldn't have to schedule a drain
+                if (!drainScheduled) {
+                    drainScheduled = true;
+                    scheduleDrain = true;
+                }
+                break;
+            }
+        }
+        if (scheduleDrain) {
+            executor.schedule(drainTask, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Put a batch the sink failed to write back in front of the logs added since, keeping their order. The ring may
+     * go over the capacity until it is drained.
+     */
+    private void requeue(List<String> batch) {
+        int total = batch.size() + size;
+        String[] requeued = ring.length >= total ? new String[ring.length] : new String[total];
+        for (int i = 0; i < batch.size(); i++) {
+            requeued[i] = batch.get(i);
+        }
+        for (int i = 0; i < size; i++) {
+            requeued[batch.size() + i] = ring[(head + i) % ring.length];
+        }
+        ring = requeued;
+        head = 0;
+        size = total;
+    }
+
+    /**
+     * @return the number of logs waiting for the sink.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of logs dropped because the queue was full.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+}
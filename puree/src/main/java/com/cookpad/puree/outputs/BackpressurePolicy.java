@@ -0,0 +1,32 @@
+package com.cookpad.puree.outputs;
+
+/**
+ * What a buffered output does with a received log while its queue in front of the storage is full.
+ *
+ * @see OutputConfiguration#setMaxQueuedLogs(int)
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Drop the received log; the default.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Drop the oldest queued log to make room for the received one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Block the sending thread until there is room, up to {@link OutputConfiguration#getBackpressureTimeoutMillis()},
+     * then drop the received log. A log received on the thread of the output's executor is dropped right away,
+     * since waiting there would hold up the work that makes room.
+     */
+    BLOCK,
+
+    /**
+     * Keep fewer and fewer logs as the queue fills up beyond half, e.g. one in two at half and one in four at three
+     * quarters, and drop the received log while it is full.
+     */
+    SAMPLE,
+}
@@ -7,6 +7,26 @@ public class OutputConfiguration {
     private int flushIntervalMillis = 2 * 60 * 1000; // 2 minutes
     private int logsPerRequest = 100;
     private int maxRetryCount = 5;
+    private int insertWindowMillis = 50;
+    private int insertBatchSize = 100;
+    private int maxInFlightRequests = 1;
+    private int maxBytesPerRequest = 0; // no limit
+    private int flushBacklogCount = 0; // disabled
+    private int flushBacklogBytes = 0; // disabled
+    private int maxFlushIntervalMillis = 0; // same as flushIntervalMillis
+    private RetryPolicy retryPolicy = RetryPolicies.LINEAR;
+    private int circuitBreakerThreshold = 0; // disabled
+    private int circuitBreakerOpenMillis = 5 * 60 * 1000; // 5 minutes
+    private int probeLogsPerRequest = 1;
+    private int emitTimeoutMillis = 0; // no timeout
+    private int maxRecordFailures = 0; // disabled
+    private int minLogsPerRequest = 0; // fixed logsPerRequest
+    private int maxLogsPerRequest = 0; // fixed logsPerRequest
+    private int targetEmitLatencyMillis = 5 * 1000; // 5 seconds
+    private int flushWeight = 1;
+    private int maxQueuedLogs = 0; // no limit
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.DROP_NEWEST;
+    private int backpressureTimeoutMillis = 100;
 
     OutputConfiguration() {
     }
@@ -34,4 +54,286 @@ public class OutputConfiguration {
     public void setMaxRetryCount(int maxRetryCount) {
         this.maxRetryCount = maxRetryCount;
     }
+
+    public int getInsertWindowMillis() {
+        return insertWindowMillis;
+    }
+
+    /**
+     * Set how long buffered outputs gather received logs before writing them to the storage in one batch.
+     * Zero writes each log as soon as possible.
+     *
+     * @param insertWindowMillis window in milliseconds.
+     */
+    public void setInsertWindowMillis(int insertWindowMillis) {
+        this.insertWindowMillis = insertWindowMillis;
+    }
+
+    public int getInsertBatchSize() {
+        return insertBatchSize;
+    }
+
+    /**
+     * Set the number of gathered logs that triggers a write before the insert window has elapsed.
+     *
+     * @param insertBatchSize number of logs.
+     */
+    public void setInsertBatchSize(int insertBatchSize) {
+        this.insertBatchSize = insertBatchSize;
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    /**
+     * Set how many batches a buffered output may emit before the earlier ones are acknowledged.
+     * Takes effect only with a {@link com.cookpad.puree.storage.PureePagingStorage}; other storages emit one
+     * batch at a time.
+     *
+     * @param maxInFlightRequests number of batches.
+     */
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    public int getMaxBytesPerRequest() {
+        return maxBytesPerRequest;
+    }
+
+    /**
+     * Set the max total size of logs per request in UTF-8 bytes. A batch is cut when either this or
+     * {@link #setLogsPerRequest(int)} is reached, but always has at least one log. Zero means no limit.
+     *
+     * @param maxBytesPerRequest size in bytes.
+     */
+    public void setMaxBytesPerRequest(int maxBytesPerRequest) {
+        this.maxBytesPerRequest = maxBytesPerRequest;
+    }
+
+    public int getFlushBacklogCount() {
+        return flushBacklogCount;
+    }
+
+    /**
+     * Set the number of buffered logs that triggers a flush before the flush interval has elapsed. Zero
+     * disables it.
+     *
+     * @param flushBacklogCount number of logs.
+     */
+    public void setFlushBacklogCount(int flushBacklogCount) {
+        this.flushBacklogCount = flushBacklogCount;
+    }
+
+    public int getFlushBacklogBytes() {
+        return flushBacklogBytes;
+    }
+
+    /**
+     * Set the total size of buffered logs in UTF-8 bytes that triggers a flush before the flush interval has
+     * elapsed. Zero disables it.
+     *
+     * @param flushBacklogBytes size in bytes.
+     */
+    public void setFlushBacklogBytes(int flushBacklogBytes) {
+        this.flushBacklogBytes = flushBacklogBytes;
+    }
+
+    public int getMaxFlushIntervalMillis() {
+        return maxFlushIntervalMillis;
+    }
+
+    /**
+     * Set the flush interval used while less than a request's worth of logs is buffered, to wake the radio less
+     * often for a trickle of logs. Zero or a value below the flush interval disables it.
+     *
+     * @param maxFlushIntervalMillis interval in milliseconds.
+     */
+    public void setMaxFlushIntervalMillis(int maxFlushIntervalMillis) {
+        this.maxFlushIntervalMillis = maxFlushIntervalMillis;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set how long to wait before each retry of a failed flush, e.g.
+     * {@link RetryPolicies#exponentialWithFullJitter(long)}. Defaults to {@link RetryPolicies#LINEAR}.
+     *
+     * @param retryPolicy {@link RetryPolicy}.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    /**
+     * Set the number of consecutive failed flushes after which a buffered output stops flushing for
+     * {@link #setCircuitBreakerOpenMillis(int)}, then probes with a single small batch. Zero disables it.
+     *
+     * @param circuitBreakerThreshold number of failed flushes.
+     */
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    public int getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    /**
+     * Set how long a buffered output stops flushing once its circuit breaker opens.
+     *
+     * @param circuitBreakerOpenMillis duration in milliseconds.
+     */
+    public void setCircuitBreakerOpenMillis(int circuitBreakerOpenMillis) {
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    public int getProbeLogsPerRequest() {
+        return probeLogsPerRequest;
+    }
+
+    /**
+     * Set the number of logs in the probe batch sent when the circuit breaker is half-open.
+     *
+     * @param probeLogsPerRequest number of logs.
+     */
+    public void setProbeLogsPerRequest(int probeLogsPerRequest) {
+        this.probeLogsPerRequest = probeLogsPerRequest;
+    }
+
+    public int getEmitTimeoutMillis() {
+        return emitTimeoutMillis;
+    }
+
+    /**
+     * Set how long a buffered output waits for an emit to call {@link com.cookpad.puree.async.AsyncResult}.
+     * After that the batch is treated as failed and retried, and a late callback is ignored. Zero means no
+     * timeout.
+     *
+     * @param emitTimeoutMillis timeout in milliseconds.
+     */
+    public void setEmitTimeoutMillis(int emitTimeoutMillis) {
+        this.emitTimeoutMillis = emitTimeoutMillis;
+    }
+
+    public int getMaxRecordFailures() {
+        return maxRecordFailures;
+    }
+
+    /**
+     * Set how many times a log may fail on its own before a buffered output moves it to the dead-letter area of
+     * the storage, e.g. {@link com.cookpad.puree.storage.PureeSQLiteStorage}, or deletes it if the storage has
+     * none. Failed batches are split in halves to find such logs, so that the logs behind them keep draining. A
+     * failure only counts if the endpoint accepted a batch without the log just before, so that an outage doesn't
+     * move healthy logs. Zero disables it.
+     *
+     * @param maxRecordFailures number of failures.
+     */
+    public void setMaxRecordFailures(int maxRecordFailures) {
+        this.maxRecordFailures = maxRecordFailures;
+    }
+
+    public int getMinLogsPerRequest() {
+        return minLogsPerRequest;
+    }
+
+    public int getMaxLogsPerRequest() {
+        return maxLogsPerRequest;
+    }
+
+    /**
+     * Let a buffered output adapt the number of logs per request within the bounds, starting from
+     * {@link #setLogsPerRequest(int)}. It grows by {@code minLogsPerRequest} while full batches are emitted within
+     * {@link #setTargetEmitLatencyMillis(int)}, and is halved when a batch fails, times out or is slower. Zero
+     * keeps the number of logs per request fixed.
+     *
+     * @param minLogsPerRequest min number of logs.
+     * @param maxLogsPerRequest max number of logs.
+     */
+    public void setAdaptiveLogsPerRequest(int minLogsPerRequest, int maxLogsPerRequest) {
+        this.minLogsPerRequest = minLogsPerRequest;
+        this.maxLogsPerRequest = maxLogsPerRequest;
+    }
+
+    public int getTargetEmitLatencyMillis() {
+        return targetEmitLatencyMillis;
+    }
+
+    /**
+     * Set the longest emit after which the adaptive number of logs per request may still grow.
+     *
+     * @param targetEmitLatencyMillis latency in milliseconds.
+     * @see #setAdaptiveLogsPerRequest(int, int)
+     */
+    public void setTargetEmitLatencyMillis(int targetEmitLatencyMillis) {
+        this.targetEmitLatencyMillis = targetEmitLatencyMillis;
+    }
+
+    public int getFlushWeight() {
+        return flushWeight;
+    }
+
+    /**
+     * Set the share of flushes a buffered output gets relative to other outputs on the same thread. An output
+     * with weight 4 flushes four times as often as one with weight 1 while both have logs to send, so a
+     * latency-sensitive output isn't held up by outputs draining a large backlog.
+     *
+     * @param flushWeight weight, at least 1.
+     * @see PureeBufferedOutput#setFlushWeight(int)
+     */
+    public void setFlushWeight(int flushWeight) {
+        this.flushWeight = flushWeight;
+    }
+
+    public int getMaxQueuedLogs() {
+        return maxQueuedLogs;
+    }
+
+    /**
+     * Set the max number of received logs that a buffered output keeps in memory until they are written to the
+     * storage, so that a stalled storage can't exhaust the memory. Logs over it are handled by
+     * {@link #setBackpressurePolicy(BackpressurePolicy)}. Zero means no limit.
+     *
+     * @param maxQueuedLogs number of logs.
+     */
+    public void setMaxQueuedLogs(int maxQueuedLogs) {
+        this.maxQueuedLogs = maxQueuedLogs;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    /**
+     * Set what to do with received logs while {@link #setMaxQueuedLogs(int)} is reached. Defaults to
+     * {@link BackpressurePolicy#DROP_NEWEST}.
+     * <p>
+     * {@link BackpressurePolicy#BLOCK} stalls the thread that sends the log, often the UI thread, for up to
+     * {@link #setBackpressureTimeoutMillis(int)}. Logs sent from the thread of the output's executor, such as
+     * rate limit summaries, are dropped instead, since that thread is the one that makes room.
+     *
+     * @param backpressurePolicy {@link BackpressurePolicy}.
+     */
+    public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    public int getBackpressureTimeoutMillis() {
+        return backpressureTimeoutMillis;
+    }
+
+    /**
+     * Set how long {@link BackpressurePolicy#BLOCK} blocks the sending thread at most.
+     *
+     * @param backpressureTimeoutMillis timeout in milliseconds.
+     */
+    public void setBackpressureTimeoutMillis(int backpressureTimeoutMillis) {
+        this.backpressureTimeoutMillis = backpressureTimeoutMillis;
+    }
 }
@@ -1,98 +1,614 @@
 package com.cookpad.puree.outputs;
 
 import com.cookpad.puree.PureeLogger;
+import com.cookpad.puree.async.Acknowledgement;
 import com.cookpad.puree.async.AsyncResult;
+import com.cookpad.puree.async.BatchAsyncResult;
+import com.cookpad.puree.internal.BatchSizeController;
+import com.cookpad.puree.internal.CircuitBreaker;
 import com.cookpad.puree.internal.PureeVerboseRunnable;
 import com.cookpad.puree.internal.RetryableTaskRunner;
+import com.cookpad.puree.internal.WeightedFairScheduler;
+import com.cookpad.puree.internal.WriteBehindQueue;
+import com.cookpad.puree.storage.PureePagingStorage;
+import com.cookpad.puree.storage.PureeStorages;
+import com.cookpad.puree.storage.Record;
 import com.cookpad.puree.storage.Records;
 
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 @ParametersAreNonnullByDefault
 public abstract class PureeBufferedOutput extends PureeOutput {
 
+    private static final String TAG = PureeBufferedOutput.class.getSimpleName();
+
     RetryableTaskRunner flushTask;
 
     ScheduledExecutorService executor;
 
+    WriteBehindQueue writeBehindQueue;
+
+    CircuitBreaker circuitBreaker;
+
+    BatchSizeController batchSizeController;
+
+    WeightedFairScheduler.Flow flushFlow;
+
+    private int inFlightRequests = 0;
+
+    private int lastLeasedId;
+
+    private boolean failedInFlight = false;
+
+    private boolean fullBatchInFlight = false;
+
+    private boolean probing = false;
+
+    // poison record isolation, see OutputConfiguration#setMaxRecordFailures
+    private int bisectLogsPerRequest = 0;
+
+    @Nullable
+    private Record suspect;
+
+    private boolean suspectSkipped = false;
+
+    // a batch without the suspect succeeded, so the suspect is sent alone next
+    private boolean sendSuspectAlone = false;
+
+    private final Map<Integer, Integer> recordFailures = new HashMap<>();
+
+    // logs inserted by this output and not emitted yet, as far as this process knows
+    final AtomicInteger backlogCount = new AtomicInteger();
+
+    final AtomicLong backlogBytes = new AtomicLong();
+
+    private final AtomicLong emitTimeoutCount = new AtomicLong();
+
+    private final AtomicLong deadLetterCount = new AtomicLong();
+
     public PureeBufferedOutput() {
     }
 
     @Override
     public void initialize(PureeLogger logger) {
         super.initialize(logger);
-        executor = logger.getExecutor();
+        executor = logger.getExecutor(type());
+        flushFlow = logger.getFlushScheduler(type()).newFlow(conf.getFlushWeight(),
+                new PureeVerboseRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushSync();
+                    }
+                }));
         flushTask = new RetryableTaskRunner(new Runnable() {
             @Override
             public void run() {
                 flush();
             }
-        }, conf.getFlushIntervalMillis(), conf.getMaxRetryCount(), executor);
+        }, conf.getFlushIntervalMillis(), conf.getMaxRetryCount(), conf.getRetryPolicy(), executor);
+        circuitBreaker = new CircuitBreaker(conf.getCircuitBreakerThreshold(), conf.getCircuitBreakerOpenMillis());
+        batchSizeController = new BatchSizeController(conf.getLogsPerRequest(), conf.getMinLogsPerRequest(),
+                conf.getMaxLogsPerRequest(), conf.getTargetEmitLatencyMillis());
+        writeBehindQueue = new WriteBehindQueue(new WriteBehindQueue.Sink() {
+            @Override
+            public void write(List<String> jsonLogs) {
+                insertSync(jsonLogs);
+            }
+        }, executor, conf.getInsertWindowMillis(), conf.getInsertBatchSize(), conf.getMaxQueuedLogs(),
+                conf.getBackpressurePolicy(), conf.getBackpressureTimeoutMillis());
     }
 
     @Override
-    public void receive(final String jsonLog) {
-        executor.execute(new PureeVerboseRunnable(new Runnable() {
-            @Override
-            public void run() {
-                String filteredLog = applyFilters(jsonLog);
-                if (filteredLog != null) {
-                    storage.insert(type(), filteredLog);
-                }
+    public void receive(String jsonLog) {
+        writeBehindQueue.add(jsonLog);
+
+        flushTask.tryToStart(flushDelayMillis());
+    }
+
+    /**
+     * @return the flush interval, stretched while less than a request's worth of logs is buffered.
+     */
+    private long flushDelayMillis() {
+        int maxFlushIntervalMillis = conf.getMaxFlushIntervalMillis();
+        if (maxFlushIntervalMillis > conf.getFlushIntervalMillis()
+                && backlogCount.get() + writeBehindQueue.size() < batchSizeController.getSize()) {
+            return maxFlushIntervalMillis;
+        }
+        return conf.getFlushIntervalMillis();
+    }
+
+    void insertSync(List<String> jsonLogs) {
+        List<String> filteredLogs = new ArrayList<>(jsonLogs.size());
+        for (String jsonLog : jsonLogs) {
+            String filteredLog = applyFilters(jsonLog);
+            if (filteredLog != null) {
+                filteredLogs.add(filteredLog);
             }
-        }));
+        }
+        if (filteredLogs.isEmpty()) {
+            return;
+        }
+        PureeStorages.insertAll(storage, type(), filteredLogs);
+
+        int count = backlogCount.addAndGet(filteredLogs.size());
+        long bytes = conf.getFlushBacklogBytes() > 0 ? backlogBytes.addAndGet(byteLength(filteredLogs)) : 0;
+        if ((conf.getFlushBacklogCount() > 0 && count >= conf.getFlushBacklogCount())
+                || (conf.getFlushBacklogBytes() > 0 && bytes >= conf.getFlushBacklogBytes())) {
+            flushTask.tryToStartNow();
+        }
+    }
 
-        flushTask.tryToStart();
+    /**
+     * Delete emitted records from the storage.
+     */
+    private void delete(Records records) {
+        storage.delete(records);
+        removeFromBacklog(records);
     }
 
+    /**
+     * Set records that won't be emitted again aside in the dead-letter area of the storage.
+     */
+    private void moveToDeadLetters(Records records) {
+        PureeStorages.moveToDeadLetters(storage, records);
+        removeFromBacklog(records);
+        deadLetterCount.addAndGet(records.size());
+    }
+
+    private void removeFromBacklog(Records records) {
+        List<String> jsonLogs = records.getJsonLogsView();
+        // logs buffered by an earlier process aren't counted
+        if (backlogCount.addAndGet(-jsonLogs.size()) < 0) {
+            backlogCount.set(0);
+        }
+        if (conf.getFlushBacklogBytes() > 0 && backlogBytes.addAndGet(-byteLength(jsonLogs)) < 0) {
+            backlogBytes.set(0);
+        }
+    }
+
+    private static long byteLength(List<String> jsonLogs) {
+        long bytes = 0;
+        for (String jsonLog : jsonLogs) {
+            bytes += PureeStorages.byteLength(jsonLog);
+        }
+        return bytes;
+    }
+
+    /**
+     * Flush on the executor, interleaved with the flushes of other outputs by
+     * {@link OutputConfiguration#setFlushWeight(int)}.
+     */
     @Override
     public void flush() {
-        executor.execute(new PureeVerboseRunnable(new Runnable() {
-            @Override
-            public void run() {
-                flushSync();
-            }
-        }));
+        flushFlow.request();
+    }
+
+    /**
+     * Change {@link OutputConfiguration#setFlushWeight(int)} at runtime, for example from remote config. It takes
+     * effect from the next flush.
+     *
+     * @param flushWeight weight, at least 1.
+     */
+    public void setFlushWeight(int flushWeight) {
+        conf.setFlushWeight(flushWeight);
+        flushFlow.setWeight(flushWeight);
     }
 
+    /**
+     * Write the received logs to the storage and emit stored logs. If the storage fails to take the received logs,
+     * they stay queued and the logs already stored are emitted anyway; the flush is retried later.
+     */
     public void flushSync() {
-        if (!storage.lock()) {
-            flushTask.retryLater();
-            return;
+        boolean drained = false;
+        try {
+            writeBehindQueue.drain();
+            drained = true;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Puree failed to write logs of " + type() + " to the storage", e);
         }
-        final Records records = getRecordsFromStorage();
 
-        if (records.isEmpty()) {
-            storage.unlock();
-            flushTask.reset();
-            return;
+        int maxInFlightRequests = getMaxInFlightRequests();
+        for (int i = 0; i < maxInFlightRequests; i++) {
+            final Records records = leaseRecords(maxInFlightRequests);
+            if (records == null) {
+                if (!drained && i == 0) {
+                    // no batch will reschedule the flush for the logs left in the queue
+                    flushTask.retryLater();
+                }
+                return;
+            }
+
+            BatchResult result = new BatchResult(records);
+            if (conf.getEmitTimeoutMillis() > 0) {
+                result.timeout = executor.schedule(result, conf.getEmitTimeoutMillis(), TimeUnit.MILLISECONDS);
+            }
+            emit(records.getJsonLogs(), result);
         }
+    }
 
-        final List<String> jsonLogs = records.getJsonLogs();
+    /**
+     * @return the number of batches that were treated as failed because emit didn't finish in time.
+     */
+    public long getEmitTimeoutCount() {
+        return emitTimeoutCount.get();
+    }
 
-        emit(jsonLogs, new AsyncResult() {
-            @Override
-            public void success() {
+    /**
+     * @return the number of received logs waiting to be written to the storage.
+     */
+    public int getQueuedLogCount() {
+        return writeBehindQueue.size();
+    }
+
+    /**
+     * @return the number of received logs dropped because {@link OutputConfiguration#getMaxQueuedLogs()} was
+     * reached.
+     */
+    public long getDroppedLogCount() {
+        return writeBehindQueue.getDroppedCount();
+    }
+
+    /**
+     * @return the number of logs per request now, which changes only with
+     * {@link OutputConfiguration#setAdaptiveLogsPerRequest(int, int)}.
+     */
+    public int getCurrentLogsPerRequest() {
+        return batchSizeController.getSize();
+    }
+
+    /**
+     * @return the number of logs moved to the dead-letter area, either rejected by an acknowledgement or failed
+     * {@link OutputConfiguration#getMaxRecordFailures()} times on their own.
+     */
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    /**
+     * The result of emitting a batch. Only the first of success, failure, acknowledgement and timeout counts;
+     * later calls are ignored, so a callback that comes after the timeout can't release the batch twice.
+     */
+    private class BatchResult implements BatchAsyncResult, Runnable {
+
+        final Records records;
+
+        final long startedAtMillis = nowMillis();
+
+        final AtomicBoolean finished = new AtomicBoolean(false);
+
+        @Nullable
+        volatile ScheduledFuture<?> timeout;
+
+        BatchResult(Records records) {
+            this.records = records;
+        }
+
+        @Override
+        public void success() {
+            if (finish()) {
+                delete(records);
+                batchSizeController.onSuccess(records.size(), nowMillis() - startedAtMillis);
+                isolate(records, true);
+                release(true);
+            }
+        }
+
+        @Override
+        public void fail() {
+            if (finish()) {
+                batchSizeController.onFailure();
+                isolate(records, false);
+                release(false);
+            }
+        }
+
+        @Override
+        public void acknowledge(Acknowledgement acknowledgement) {
+            if (!finish()) {
+                return;
+            }
+            // the endpoint answered, so the size of the batch wasn't the problem
+            batchSizeController.onSuccess(records.size(), nowMillis() - startedAtMillis);
+            Records accepted = new Records();
+            Records rejected = new Records();
+            for (int i = 0; i < records.size(); i++) {
+                if (acknowledgement.isRejected(i)) {
+                    rejected.add(records.get(i));
+                } else if (!acknowledgement.isRetried(i)) {
+                    accepted.add(records.get(i));
+                }
+            }
+            if (!accepted.isEmpty()) {
+                delete(accepted);
+            }
+            if (!rejected.isEmpty()) {
+                moveToDeadLetters(rejected);
+            }
+            boolean done = accepted.size() + rejected.size() == records.size();
+            if (done) {
+                isolate(records, true);
+            }
+            release(done);
+        }
+
+        /**
+         * Called when the emit timeout expires.
+         */
+        @Override
+        public void run() {
+            if (finished.compareAndSet(false, true)) {
+                emitTimeoutCount.incrementAndGet();
+                batchSizeController.onFailure();
+                isolate(records, false);
+                release(false);
+            }
+        }
+
+        private boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            return true;
+        }
+    }
+
+    private int getMaxInFlightRequests() {
+        if (storage instanceof PureePagingStorage) {
+            return Math.max(1, conf.getMaxInFlightRequests());
+        }
+        return 1;
+    }
+
+    /**
+     * Select the next batch that isn't in flight yet. The type is locked while any batch of this output is in
+     * flight, and batches after the first one are paged from the last leased record.
+     * <p>
+     * Nothing is selected while the circuit breaker is open, and a half-open breaker gets a single small batch.
+     * While a failed batch is being narrowed down, batches are smaller and emitted one at a time.
+     *
+     * @return records to emit, or null if there is nothing to emit now.
+     */
+    @Nullable
+    private synchronized Records leaseRecords(int maxInFlightRequests) {
+        if (inFlightRequests >= maxInFlightRequests || (inFlightRequests > 0 && (failedInFlight || probing || isolating()))) {
+            return null;
+        }
+
+        boolean acquired = false;
+        if (inFlightRequests == 0) {
+            long now = nowMillis();
+            if (!circuitBreaker.allowRequest(now)) {
+                flushTask.startAfter(circuitBreaker.remainingOpenMillis(now));
+                return null;
+            }
+            if (!PureeStorages.lock(storage, type())) {
+                flushTask.retryLater();
+                return null;
+            }
+            acquired = true;
+            failedInFlight = false;
+            fullBatchInFlight = false;
+            suspectSkipped = false;
+            probing = circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN;
+        }
+
+        int logsPerRequest = batchSizeController.getSize();
+        if (probing) {
+            logsPerRequest = Math.max(1, Math.min(conf.getProbeLogsPerRequest(), logsPerRequest));
+        }
+        if (bisectLogsPerRequest > 0) {
+            logsPerRequest = Math.min(bisectLogsPerRequest, logsPerRequest);
+        }
+        Records records;
+        if (suspect == null) {
+            records = getRecordsFromStorage(logsPerRequest);
+        } else if (sendSuspectAlone) {
+            records = getSuspectAlone(logsPerRequest);
+        } else {
+            records = getRecordsSkippingSuspect(logsPerRequest);
+        }
+
+        if (records.isEmpty()) {
+            if (acquired) {
+                // the storage may have been truncated or cleared behind this output
+                backlogCount.set(0);
+                backlogBytes.set(0);
+                PureeStorages.unlock(storage, type());
                 flushTask.reset();
-                storage.delete(records);
-                storage.unlock();
             }
+            return null;
+        }
 
-            @Override
-            public void fail() {
+        if (records.size() >= batchSizeController.getSize()) {
+            fullBatchInFlight = true;
+        }
+        lastLeasedId = records.get(records.size() - 1).getId();
+        inFlightRequests++;
+        return records;
+    }
+
+    /**
+     * Finish a batch. Once no batch is in flight, the type is unlocked and failed batches are retried from the
+     * head of the storage, or after the circuit breaker's open duration if it opened. If every batch succeeded
+     * and a full batch may remain, the next flush starts right away instead of waiting for the flush interval.
+     */
+    private synchronized void release(boolean success) {
+        if (!success) {
+            failedInFlight = true;
+        }
+        inFlightRequests--;
+        if (inFlightRequests > 0) {
+            return;
+        }
+
+        PureeStorages.unlock(storage, type());
+        if (failedInFlight) {
+            circuitBreaker.onFailure(nowMillis());
+            if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                flushTask.startAfter(conf.getCircuitBreakerOpenMillis());
+            } else {
                 flushTask.retryLater();
-                storage.unlock();
             }
-        });
+            return;
+        }
+
+        circuitBreaker.onSuccess();
+        // the batch succeeded, so a retry that is still scheduled is stale
+        flushTask.reset();
+        if (probing || fullBatchInFlight || isolating() || backlogCount.get() >= batchSizeController.getSize()) {
+            flushTask.tryToStartNow();
+        } else if (backlogCount.get() > 0 || writeBehindQueue.size() > 0) {
+            // logs received during the flush didn't start the timer
+            flushTask.tryToStart(flushDelayMillis());
+        }
+    }
+
+    private Records getRecordsFromStorage(int logsPerRequest) {
+        int afterId = inFlightRequests == 0 ? PureePagingStorage.FIRST_PAGE : lastLeasedId;
+        return PureeStorages.select(storage, type(), afterId, logsPerRequest, conf.getMaxBytesPerRequest());
+    }
+
+    /**
+     * Select the first batch without the suspect, to tell whether the suspect or the endpoint is failing. The
+     * suspect is sent alone again if nothing else is buffered.
+     */
+    private Records getRecordsSkippingSuspect(int logsPerRequest) {
+        Records selected = PureeStorages.select(storage, type(), PureePagingStorage.FIRST_PAGE, logsPerRequest + 1,
+                conf.getMaxBytesPerRequest());
+        Records records = new Records();
+        for (Record record : selected) {
+            if (record.getId() == suspect.getId()) {
+                suspectSkipped = true;
+            } else if (records.size() < logsPerRequest) {
+                records.add(record);
+            }
+        }
+        if (!suspectSkipped || records.isEmpty()) {
+            suspect = null;
+            suspectSkipped = false;
+            return getRecordsFromStorage(logsPerRequest);
+        }
+        return records;
+    }
+
+    /**
+     * Select the suspect alone, right after a batch without it succeeded, so that its failure can't be blamed on
+     * the endpoint.
+     */
+    private Records getSuspectAlone(int logsPerRequest) {
+        Records records = getRecordsFromStorage(1);
+        if (records.isEmpty() || records.get(0).getId() != suspect.getId()) {
+            // the suspect was deleted behind this output
+            suspect = null;
+            sendSuspectAlone = false;
+            return getRecordsFromStorage(logsPerRequest);
+        }
+        return records;
+    }
+
+    private boolean isolating() {
+        return bisectLogsPerRequest > 0 || suspect != null;
+    }
+
+    /**
+     * Narrow failed batches down to the records that fail on their own. A failed batch is split in halves until
+     * a single record fails; that record becomes the suspect and is skipped by the next batch. Only if that batch
+     * succeeds is the suspect sent alone again, and only a failure then counts against it, so that failures while
+     * the endpoint is down don't send healthy records to the dead letters. A record that failed
+     * {@link OutputConfiguration#getMaxRecordFailures()} times that way is moved there.
+     */
+    private synchronized void isolate(Records records, boolean success) {
+        int maxRecordFailures = conf.getMaxRecordFailures();
+        if (maxRecordFailures <= 0) {
+            return;
+        }
+
+        if (!success) {
+            if (suspectSkipped) {
+                // the endpoint fails without the suspect as well
+                suspect = null;
+                suspectSkipped = false;
+            } else if (sendSuspectAlone) {
+                // the suspect failed on its own right after the endpoint succeeded without it
+                sendSuspectAlone = false;
+                countSuspectFailure(maxRecordFailures);
+                return;
+            }
+            if (records.size() > 1) {
+                bisectLogsPerRequest = (records.size() + 1) / 2;
+            } else {
+                suspect = records.get(0);
+                bisectLogsPerRequest = 1;
+            }
+            return;
+        }
+
+        for (Record record : records) {
+            recordFailures.remove(record.getId());
+        }
+        if (suspectSkipped) {
+            suspectSkipped = false;
+            sendSuspectAlone = true;
+            return;
+        }
+        if (sendSuspectAlone) {
+            // the suspect succeeded on its own
+            suspect = null;
+            sendSuspectAlone = false;
+        }
+        if (bisectLogsPerRequest > 0) {
+            bisectLogsPerRequest *= 2;
+            if (bisectLogsPerRequest >= batchSizeController.getSize()) {
+                bisectLogsPerRequest = 0;
+            }
+        }
+    }
+
+    /**
+     * Count a failure against the suspect, and move it to the dead letters once it failed too many times. Otherwise
+     * the next batch skips it again to check the endpoint before the suspect is sent alone again.
+     */
+    private void countSuspectFailure(int maxRecordFailures) {
+        Integer failures = recordFailures.get(suspect.getId());
+        int count = failures == null ? 1 : failures + 1;
+        if (count < maxRecordFailures) {
+            recordFailures.put(suspect.getId(), count);
+            return;
+        }
+        recordFailures.remove(suspect.getId());
+        Records deadLetters = new Records();
+        deadLetters.add(suspect);
+        moveToDeadLetters(deadLetters);
+        suspect = null;
+        bisectLogsPerRequest = 0;
     }
 
-    private Records getRecordsFromStorage() {
-        return storage.select(type(), conf.getLogsPerRequest());
+    private static long nowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
     }
 
+    /**
+     * Emit a batch of logs, and call {@code result} when done. {@code result} is a {@link BatchAsyncResult}, so an
+     * output whose endpoint accepts part of a batch can acknowledge each log instead.
+     */
     public abstract void emit(List<String> jsonLogs, final AsyncResult result);
 
     public void emit(String jsonLog) {
@@ -0,0 +1,44 @@
+package com.cookpad.puree.outputs;
+
+import java.util.Random;
+
+/**
+ * Built-in {@link RetryPolicy}s.
+ */
+public class RetryPolicies {
+
+    /**
+     * Wait {@code base * (retryCount + 1)}; the default.
+     */
+    public static final RetryPolicy LINEAR = new RetryPolicy() {
+        @Override
+        public long delayMillis(int baseMillis, int retryCount) {
+            return (long) baseMillis * (retryCount + 1);
+        }
+    };
+
+    private RetryPolicies() {
+    }
+
+    /**
+     * Wait a random time between zero and {@code min(cap, base * 2^retryCount)}, so that devices that failed
+     * together don't retry together.
+     *
+     * @param capMillis the max delay in milliseconds.
+     * @return {@link RetryPolicy}.
+     */
+    public static RetryPolicy exponentialWithFullJitter(final long capMillis) {
+        final Random random = new Random();
+        return new RetryPolicy() {
+            @Override
+            public long delayMillis(int baseMillis, int retryCount) {
+                long ceiling = baseMillis;
+                for (int i = 0; i < retryCount && ceiling < capMillis; i++) {
+                    ceiling *= 2;
+                }
+                ceiling = Math.min(ceiling, capMillis);
+                return (long) (random.nextDouble() * (ceiling + 1));
+            }
+        };
+    }
+}
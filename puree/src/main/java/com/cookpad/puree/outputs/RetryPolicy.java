@@ -0,0 +1,17 @@
+package com.cookpad.puree.outputs;
+
+/**
+ * Decides how long a buffered output waits before retrying a failed flush.
+ *
+ * @see RetryPolicies
+ * @see OutputConfiguration#setRetryPolicy(RetryPolicy)
+ */
+public interface RetryPolicy {
+
+    /**
+     * @param baseMillis the flush interval of the output.
+     * @param retryCount the number of retries including this one, starting from 1.
+     * @return the delay before the retry in milliseconds.
+     */
+    long delayMillis(int baseMillis, int retryCount);
+}
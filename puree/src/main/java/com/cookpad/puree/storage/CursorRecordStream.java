@@ -0,0 +1,60 @@
+package com.cookpad.puree.storage;
+
+import android.database.Cursor;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+class CursorRecordStream implements RecordStream {
+
+    private final Cursor cursor;
+
+    private boolean iterated = false;
+
+    CursorRecordStream(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("RecordStream can be iterated only once");
+        }
+        iterated = true;
+
+        return new Iterator<Record>() {
+            private Record next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !cursor.isClosed() && cursor.moveToNext()) {
+                    next = PureeSQLiteStorage.buildRecord(cursor);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Record record = next;
+                next = null;
+                return record;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+}
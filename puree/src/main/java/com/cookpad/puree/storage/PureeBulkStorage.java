@@ -0,0 +1,13 @@
+package com.cookpad.puree.storage;
+
+import java.util.List;
+
+/**
+ * A {@link PureeStorage} that can insert many logs at once, e.g. in a single transaction.
+ *
+ * @see PureeStorages#insertAll(PureeStorage, String, List)
+ */
+public interface PureeBulkStorage extends PureeStorage {
+
+    public void insertAll(String type, List<String> jsonLogs);
+}
@@ -0,0 +1,33 @@
+package com.cookpad.puree.storage;
+
+/**
+ * A {@link PureeStorage} that can set logs aside in a dead-letter area, apart from the buffered logs, instead of
+ * deleting them. Dead letters are never selected for flushing and are kept only for the storage's retention.
+ *
+ * @see PureeStorages#moveToDeadLetters(PureeStorage, Records)
+ */
+public interface PureeDeadLetterStorage extends PureeStorage {
+
+    /**
+     * Move buffered records to the dead-letter area.
+     *
+     * @param records {@link Records} selected from this storage.
+     */
+    public void moveToDeadLetters(Records records);
+
+    /**
+     * Select dead letters of the type, oldest first.
+     *
+     * @param type type of the output.
+     * @param limit max number of logs.
+     * @return {@link Records} whose ids are those of the dead-letter area.
+     */
+    public Records selectDeadLetters(String type, int limit);
+
+    /**
+     * Delete dead letters, e.g. after they were inspected or sent elsewhere.
+     *
+     * @param records {@link Records} selected by {@link #selectDeadLetters(String, int)}.
+     */
+    public void deleteDeadLetters(Records records);
+}
@@ -0,0 +1,33 @@
+package com.cookpad.puree.storage;
+
+/**
+ * A {@link PureeStorage} that can select logs page by page.
+ */
+public interface PureePagingStorage extends PureeStorage {
+
+    /**
+     * {@code afterId} to select the first page.
+     */
+    public static final int FIRST_PAGE = -1;
+
+    /**
+     * Select logs of the type that come after the record of {@code afterId}, in the same order as
+     * {@link #select(String, int)}.
+     *
+     * @param type type of the output.
+     * @param afterId id of the last record of the previous page.
+     * @param logsPerRequest max number of logs.
+     * @return {@link Records}.
+     */
+    public Records selectAfter(String type, int afterId, int logsPerRequest);
+
+    /**
+     * Select logs of all types that come after the record of {@code afterId}, in the same order as
+     * {@link #selectAll()}.
+     *
+     * @param afterId id of the last record of the previous page, or {@link #FIRST_PAGE}.
+     * @param limit max number of logs.
+     * @return {@link Records}.
+     */
+    public Records selectAllAfter(int afterId, int limit);
+}
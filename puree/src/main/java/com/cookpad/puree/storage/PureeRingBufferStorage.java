@@ -0,0 +1,355 @@
+package com.cookpad.puree.storage;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A {@link PureeStorage} that keeps logs in a fixed-capacity ring in memory and spills them to a durable storage,
+ * e.g. {@link PureeSQLiteStorage}, only when the ring reaches its watermark or the app goes to the background.
+ * <p>
+ * Logs that are still in memory are lost if the process dies, so use this for high-volume logs that can afford
+ * it. Logs of a type that is being flushed stay in memory until the flush ends, so that they aren't sent twice;
+ * if they fill the ring, it grows past its capacity until they are spilled, so that logs keep their order.
+ */
+@ParametersAreNonnullByDefault
+public class PureeRingBufferStorage implements PureeTypeLockStorage, ComponentCallbacks2 {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final PureeStorage durableStorage;
+
+    private final int capacity;
+
+    private final int spillWatermark;
+
+    private final Executor spillExecutor;
+
+    private final Runnable spillTask = new Runnable() {
+        @Override
+        public void run() {
+            // a memory event after this point spills again
+            spillPending.set(false);
+            spill();
+        }
+    };
+
+    // coalesces bursts of memory events into one spill
+    private final AtomicBoolean spillPending = new AtomicBoolean(false);
+
+    @Nullable
+    private Context context;
+
+    private Record[] ring;
+
+    // index of the oldest slot, and the number of used slots including deleted ones
+    private int head = 0;
+
+    private int used = 0;
+
+    private int size = 0;
+
+    // memory logs have negative ids so that they are never confused with the ids of the durable storage
+    private int lastId = 0;
+
+    private boolean spillRequested = false;
+
+    private final AtomicBoolean lock = new AtomicBoolean(false);
+
+    private final TypeLocks typeLocks = new TypeLocks();
+
+    private final AtomicLong spillCount = new AtomicLong();
+
+    private final AtomicLong spilledLogCount = new AtomicLong();
+
+    /**
+     * Create a storage with {@link #DEFAULT_CAPACITY} that spills when the app goes to the background. Call
+     * {@link #close()} when the storage is no longer used.
+     */
+    public PureeRingBufferStorage(Context context, PureeStorage durableStorage) {
+        this(context, durableStorage, newSpillExecutor());
+    }
+
+    /**
+     * @param spillExecutor runs the spills requested by the system, which arrive on the main thread.
+     */
+    public PureeRingBufferStorage(Context context, PureeStorage durableStorage, Executor spillExecutor) {
+        this(durableStorage, DEFAULT_CAPACITY, DEFAULT_CAPACITY * 3 / 4, spillExecutor);
+        this.context = context.getApplicationContext();
+        this.context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * @param capacity the number of logs kept in memory.
+     * @param spillWatermark spill to {@code durableStorage} when this number of slots is used.
+     */
+    public PureeRingBufferStorage(PureeStorage durableStorage, int capacity, int spillWatermark) {
+        this(durableStorage, capacity, spillWatermark, newSpillExecutor());
+    }
+
+    /**
+     * @param capacity the number of logs kept in memory.
+     * @param spillWatermark spill to {@code durableStorage} when this number of slots is used.
+     * @param spillExecutor runs the spills requested by {@link #onTrimMemory(int)} and {@link #onLowMemory()}.
+     */
+    public PureeRingBufferStorage(PureeStorage durableStorage, int capacity, int spillWatermark,
+            Executor spillExecutor) {
+        if (capacity <= 0 || spillWatermark <= 0 || spillWatermark > capacity) {
+            throw new IllegalArgumentException("capacity: " + capacity + ", spillWatermark: " + spillWatermark);
+        }
+        this.durableStorage = durableStorage;
+        this.capacity = capacity;
+        this.ring = new Record[capacity];
+        this.spillWatermark = spillWatermark;
+        this.spillExecutor = spillExecutor;
+    }
+
+    /**
+     * @return an executor that runs each spill on a new background thread. Memory events are coalesced while a
+     * spill is pending, so at most one such thread waits to spill.
+     */
+    private static Executor newSpillExecutor() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command, "puree-spill");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.start();
+            }
+        };
+    }
+
+    @Override
+    public synchronized void insert(String type, String jsonLog) {
+        if (used == ring.length) {
+            spill();
+        }
+        if (used == ring.length) {
+            // every log in memory is being flushed; writing this one to the durable storage would put it ahead
+            // of the older ones once they are spilled
+            grow();
+        }
+        ring[(head + used) % ring.length] = new Record(--lastId, type, jsonLog);
+        used++;
+        size++;
+        if (used >= spillWatermark && !spillRequested) {
+            spill();
+        }
+    }
+
+    @Override
+    public synchronized Records select(String type, int logsPerRequest) {
+        // spilled logs are older than the ones in memory
+        Records records = durableStorage.select(type, logsPerRequest);
+        for (int i = 0; i < used && records.size() < logsPerRequest; i++) {
+            Record record = ring[(head + i) % ring.length];
+            if (record != null && record.getType().equals(type)) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized Records selectAll() {
+        Records records = durableStorage.selectAll();
+        for (int i = 0; i < used; i++) {
+            Record record = ring[(head + i) % ring.length];
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized void delete(Records records) {
+        Records durableRecords = new Records();
+        for (Record record : records) {
+            if (record.getId() > 0) {
+                durableRecords.add(record);
+                continue;
+            }
+            for (int i = 0; i < used; i++) {
+                int index = (head + i) % ring.length;
+                if (ring[index] != null && ring[index].getId() == record.getId()) {
+                    ring[index] = null;
+                    size--;
+                    break;
+                }
+            }
+        }
+        skipDeleted();
+        if (!durableRecords.isEmpty()) {
+            durableStorage.delete(durableRecords);
+        }
+    }
+
+    @Override
+    public synchronized void truncateBufferedLogs(int maxRecords) {
+        while (size > maxRecords) {
+            ring[head] = null;
+            size--;
+            skipDeleted();
+        }
+        durableStorage.truncateBufferedLogs(maxRecords - size);
+    }
+
+    @Override
+    public synchronized void clear() {
+        ring = new Record[capacity];
+        head = 0;
+        used = 0;
+        size = 0;
+        spillRequested = false;
+        durableStorage.clear();
+    }
+
+    @Override
+    public boolean lock() {
+        return lock.compareAndSet(false, true);
+    }
+
+    @Override
+    public void unlock() {
+        lock.set(false);
+    }
+
+    @Override
+    public boolean lock(String type) {
+        return typeLocks.lock(type);
+    }
+
+    @Override
+    public void unlock(String type) {
+        typeLocks.unlock(type);
+        synchronized (this) {
+            if (spillRequested) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * Move logs in memory to the durable storage. Logs of types that are being flushed are kept in memory and
+     * spilled when their flush ends.
+     */
+    public synchronized void spill() {
+        Map<String, List<String>> spilledLogs = new LinkedHashMap<>();
+        int kept = 0;
+        for (int i = 0; i < used; i++) {
+            int index = (head + i) % ring.length;
+            Record record = ring[index];
+            if (record == null) {
+                continue;
+            }
+            ring[index] = null;
+            String type = record.getType();
+            if (typeLocks.isLocked(type)) {
+                ring[(head + kept++) % ring.length] = record;
+                continue;
+            }
+            List<String> jsonLogs = spilledLogs.get(type);
+            if (jsonLogs == null) {
+                jsonLogs = new ArrayList<>();
+                spilledLogs.put(type, jsonLogs);
+            }
+            jsonLogs.add(record.getJsonLog());
+        }
+        used = kept;
+        size = kept;
+        spillRequested = kept > 0;
+        if (ring.length > capacity && kept <= capacity) {
+            resize(capacity);
+        }
+
+        if (spilledLogs.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, List<String>> entry : spilledLogs.entrySet()) {
+            PureeStorages.insertAll(durableStorage, entry.getKey(), entry.getValue());
+            spilledLogCount.addAndGet(entry.getValue().size());
+        }
+        spillCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of times logs were spilled to the durable storage.
+     */
+    public long getSpillCount() {
+        return spillCount.get();
+    }
+
+    /**
+     * @return the number of logs spilled to the durable storage.
+     */
+    public long getSpilledLogCount() {
+        return spilledLogCount.get();
+    }
+
+    /**
+     * Stop listening to the memory events of the app, and spill the logs in memory.
+     */
+    public void close() {
+        synchronized (this) {
+            if (context != null) {
+                context.unregisterComponentCallbacks(this);
+                context = null;
+            }
+        }
+        spill();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            requestSpill();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        requestSpill();
+    }
+
+    private void requestSpill() {
+        if (spillPending.compareAndSet(false, true)) {
+            spillExecutor.execute(spillTask);
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private void grow() {
+        resize(ring.length * 2);
+    }
+
+    private void resize(int length) {
+        Record[] resized = new Record[length];
+        for (int i = 0; i < used; i++) {
+            resized[i] = ring[(head + i) % ring.length];
+        }
+        ring = resized;
+        head = 0;
+    }
+
+    private void skipDeleted() {
+        while (used > 0 && ring[head] == null) {
+            head = (head + 1) % ring.length;
+            used--;
+        }
+    }
+}
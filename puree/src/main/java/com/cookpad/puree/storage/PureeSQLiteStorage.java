@@ -2,23 +2,25 @@ package com.cookpad.puree.storage;
 
 import com.cookpad.puree.internal.ProcessName;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import androidx.sqlite.db.SupportSQLiteDatabase;
 import androidx.sqlite.db.SupportSQLiteOpenHelper;
+import androidx.sqlite.db.SupportSQLiteStatement;
 import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
 
 @ParametersAreNonnullByDefault
-public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback implements PureeStorage {
+public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback
+        implements PureeBulkStorage, PureeTypeLockStorage, PureePagingStorage, PureeStreamingStorage,
+        PureeSizeAwareStorage, PureeDeadLetterStorage {
 
     private static final String DATABASE_NAME = "puree.db";
 
@@ -28,7 +30,66 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
 
     private static final String COLUMN_NAME_LOG = "log";
 
-    private static final int DATABASE_VERSION = 1;
+    private static final String COLUMN_NAME_LOG_LENGTH = "log_length";
+
+    private static final String INDEX_NAME_TYPE_ID = "logs_type_id";
+
+    private static final String INDEX_NAME_TYPE_ID_LOG_LENGTH = "logs_type_id_log_length";
+
+    private static final String DEAD_LETTER_TABLE_NAME = "dead_letters";
+
+    private static final String COLUMN_NAME_FAILED_AT = "failed_at";
+
+    private static final String INDEX_NAME_DEAD_LETTERS_TYPE_ID = "dead_letters_type_id";
+
+    private static final int DATABASE_VERSION = 4;
+
+    public static final long DEFAULT_DEAD_LETTER_MAX_AGE_MILLIS = 7 * 24 * 60 * 60 * 1000L; // 7 days
+
+    public static final int DEFAULT_DEAD_LETTER_MAX_RECORDS = 1000;
+
+    /**
+     * Schema changes applied in order on top of the version 1 schema created by {@link #createLogsTable}.
+     * Never edit a released migration; append a new one and bump {@link #DATABASE_VERSION} instead.
+     */
+    private static final Migration[] MIGRATIONS = {
+            new Migration(2) {
+                @Override
+                void migrate(SupportSQLiteDatabase db) {
+                    // covers `WHERE type = ? ORDER BY id` so that selects don't scan the whole table
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_NAME_TYPE_ID +
+                            " ON " + TABLE_NAME + " (" + COLUMN_NAME_TYPE + ", id)");
+                }
+            },
+            new Migration(3) {
+                @Override
+                void migrate(SupportSQLiteDatabase db) {
+                    // size of the log in UTF-8 bytes, so that batches can be cut by size without reading logs
+                    db.execSQL("ALTER TABLE " + TABLE_NAME +
+                            " ADD COLUMN " + COLUMN_NAME_LOG_LENGTH + " INTEGER NOT NULL DEFAULT 0");
+                    db.execSQL("UPDATE " + TABLE_NAME +
+                            " SET " + COLUMN_NAME_LOG_LENGTH + " = length(CAST(" + COLUMN_NAME_LOG + " AS BLOB))");
+                    // also covers the size lookup, so it replaces the (type, id) index
+                    db.execSQL("DROP INDEX IF EXISTS " + INDEX_NAME_TYPE_ID);
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_NAME_TYPE_ID_LOG_LENGTH +
+                            " ON " + TABLE_NAME + " (" + COLUMN_NAME_TYPE + ", id, " + COLUMN_NAME_LOG_LENGTH + ")");
+                }
+            },
+            new Migration(4) {
+                @Override
+                void migrate(SupportSQLiteDatabase db) {
+                    // logs that kept failing, set aside so that they don't block the logs behind them
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + DEAD_LETTER_TABLE_NAME + " (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            COLUMN_NAME_TYPE + " TEXT," +
+                            COLUMN_NAME_LOG + " TEXT," +
+                            COLUMN_NAME_FAILED_AT + " INTEGER NOT NULL" +
+                            ")");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_NAME_DEAD_LETTERS_TYPE_ID +
+                            " ON " + DEAD_LETTER_TABLE_NAME + " (" + COLUMN_NAME_TYPE + ", id)");
+                }
+            },
+    };
 
     private final SupportSQLiteOpenHelper openHelper;
 
@@ -36,6 +97,14 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
 
     private final AtomicBoolean lock = new AtomicBoolean(false);
 
+    private final TypeLocks typeLocks = new TypeLocks();
+
+    private SupportSQLiteStatement insertStatement;
+
+    private long deadLetterMaxAgeMillis = DEFAULT_DEAD_LETTER_MAX_AGE_MILLIS;
+
+    private int deadLetterMaxRecords = DEFAULT_DEAD_LETTER_MAX_RECORDS;
+
     static String databaseName(Context context) {
         // do not share the database file in multi processes
         String processName = ProcessName.getAndroidProcessName(context);
@@ -63,11 +132,45 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
                 );
     }
 
-    public void insert(String type, String jsonLog) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(COLUMN_NAME_TYPE, type);
-        contentValues.put(COLUMN_NAME_LOG, jsonLog);
-        openHelper.getWritableDatabase().insert(TABLE_NAME, SQLiteDatabase.CONFLICT_NONE, contentValues);
+    public synchronized void insert(String type, String jsonLog) {
+        executeInsert(getInsertStatement(), type, jsonLog);
+    }
+
+    @Override
+    public synchronized void insertAll(String type, List<String> jsonLogs) {
+        if (jsonLogs.isEmpty()) {
+            return;
+        }
+        SupportSQLiteStatement statement = getInsertStatement();
+        SupportSQLiteDatabase db = openHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String jsonLog : jsonLogs) {
+                executeInsert(statement, type, jsonLog);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private SupportSQLiteStatement getInsertStatement() {
+        if (insertStatement == null) {
+            String query = "INSERT INTO " + TABLE_NAME + " (" +
+                    COLUMN_NAME_TYPE + ", " +
+                    COLUMN_NAME_LOG + ", " +
+                    COLUMN_NAME_LOG_LENGTH +
+                    ") VALUES (?, ?, ?)";
+            insertStatement = openHelper.getWritableDatabase().compileStatement(query);
+        }
+        return insertStatement;
+    }
+
+    private static void executeInsert(SupportSQLiteStatement statement, String type, String jsonLog) {
+        statement.bindString(1, type);
+        statement.bindString(2, jsonLog);
+        statement.bindLong(3, PureeStorages.byteLength(jsonLog));
+        statement.executeInsert();
     }
 
     private String getOrderType() {
@@ -94,6 +197,66 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
         }
     }
 
+    @Override
+    public Records selectAfter(String type, int afterId, int logsPerRequest) {
+        String query = "SELECT * FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_NAME_TYPE + " = ?" +
+                " AND id " + (isOrderByDesc ? "<" : ">") + " ?" +
+                " ORDER BY id " + getOrderType() +
+                " LIMIT " + logsPerRequest;
+        Cursor cursor = openHelper.getReadableDatabase().query(query, new Object[]{type, afterId});
+
+        try {
+            return recordsFromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public Records selectWithinBytes(String type, int afterId, int logsPerRequest, int maxBytes) {
+        String comparison = isOrderByDesc ? "<" : ">";
+        String afterIdCondition = afterId == FIRST_PAGE ? "" : " AND id " + comparison + " " + afterId;
+
+        // find the last record within the budget from the index only
+        String sizeQuery = "SELECT id, " + COLUMN_NAME_LOG_LENGTH + " FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_NAME_TYPE + " = ?" + afterIdCondition +
+                " ORDER BY id " + getOrderType() +
+                " LIMIT " + logsPerRequest;
+        Cursor sizeCursor = openHelper.getReadableDatabase().query(sizeQuery, new String[]{type});
+        int count = 0;
+        int lastId = 0;
+        try {
+            long totalBytes = 0;
+            while (sizeCursor.moveToNext()) {
+                totalBytes += sizeCursor.getLong(1);
+                if (totalBytes > maxBytes && count > 0) {
+                    break;
+                }
+                lastId = sizeCursor.getInt(0);
+                count++;
+            }
+        } finally {
+            sizeCursor.close();
+        }
+        if (count == 0) {
+            return new Records();
+        }
+
+        String query = "SELECT * FROM " + TABLE_NAME +
+                " WHERE " + COLUMN_NAME_TYPE + " = ?" + afterIdCondition +
+                " AND id " + (isOrderByDesc ? ">=" : "<=") + " " + lastId +
+                " ORDER BY id " + getOrderType() +
+                " LIMIT " + count;
+        Cursor cursor = openHelper.getReadableDatabase().query(query, new String[]{type});
+
+        try {
+            return recordsFromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public Records selectAll() {
         String query = "SELECT * FROM " + TABLE_NAME + " ORDER BY id " + getOrderType();
@@ -106,6 +269,27 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
         }
     }
 
+    @Override
+    public Records selectAllAfter(int afterId, int limit) {
+        String query = "SELECT * FROM " + TABLE_NAME +
+                (afterId == FIRST_PAGE ? "" : " WHERE id " + (isOrderByDesc ? "<" : ">") + " " + afterId) +
+                " ORDER BY id " + getOrderType() +
+                " LIMIT " + limit;
+        Cursor cursor = openHelper.getReadableDatabase().query(query);
+
+        try {
+            return recordsFromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public RecordStream streamAll() {
+        String query = "SELECT * FROM " + TABLE_NAME + " ORDER BY id " + getOrderType();
+        return new CursorRecordStream(openHelper.getReadableDatabase().query(query));
+    }
+
     private Records recordsFromCursor(Cursor cursor) {
         Records records = new Records();
         while (cursor.moveToNext()) {
@@ -115,7 +299,7 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
         return records;
     }
 
-    private Record buildRecord(Cursor cursor) {
+    static Record buildRecord(Cursor cursor) {
         return new Record(
                 cursor.getInt(0),
                 cursor.getString(1),
@@ -141,6 +325,69 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
         openHelper.getWritableDatabase().delete(TABLE_NAME, where, null);
     }
 
+    /**
+     * Set how long and how many dead letters are kept. Older ones are deleted whenever logs are moved to the
+     * dead-letter area. Defaults to {@link #DEFAULT_DEAD_LETTER_MAX_AGE_MILLIS} and
+     * {@link #DEFAULT_DEAD_LETTER_MAX_RECORDS}.
+     *
+     * @param maxAgeMillis max age of a dead letter in milliseconds.
+     * @param maxRecords max number of dead letters.
+     */
+    public synchronized void setDeadLetterRetention(long maxAgeMillis, int maxRecords) {
+        this.deadLetterMaxAgeMillis = maxAgeMillis;
+        this.deadLetterMaxRecords = maxRecords;
+    }
+
+    @Override
+    public synchronized void moveToDeadLetters(Records records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        String ids = records.getIdsAsString();
+        long now = System.currentTimeMillis();
+        SupportSQLiteDatabase db = openHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL("INSERT INTO " + DEAD_LETTER_TABLE_NAME + " (" +
+                    COLUMN_NAME_TYPE + ", " +
+                    COLUMN_NAME_LOG + ", " +
+                    COLUMN_NAME_FAILED_AT +
+                    ") SELECT " + COLUMN_NAME_TYPE + ", " + COLUMN_NAME_LOG + ", ? FROM " + TABLE_NAME +
+                    " WHERE id IN (" + ids + ") ORDER BY id", new Object[]{now});
+            db.delete(TABLE_NAME, "id IN (" + ids + ")", null);
+
+            db.delete(DEAD_LETTER_TABLE_NAME, COLUMN_NAME_FAILED_AT + " < ?",
+                    new Object[]{now - deadLetterMaxAgeMillis});
+            db.delete(DEAD_LETTER_TABLE_NAME, "id NOT IN ( SELECT id FROM " + DEAD_LETTER_TABLE_NAME +
+                    " ORDER BY id DESC LIMIT " + deadLetterMaxRecords + ")", null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public Records selectDeadLetters(String type, int limit) {
+        String query = "SELECT id, " + COLUMN_NAME_TYPE + ", " + COLUMN_NAME_LOG +
+                " FROM " + DEAD_LETTER_TABLE_NAME +
+                " WHERE " + COLUMN_NAME_TYPE + " = ?" +
+                " ORDER BY id ASC" +
+                " LIMIT " + limit;
+        Cursor cursor = openHelper.getReadableDatabase().query(query, new String[]{type});
+
+        try {
+            return recordsFromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deleteDeadLetters(Records records) {
+        String where = "id IN (" + records.getIdsAsString() + ")";
+        openHelper.getWritableDatabase().delete(DEAD_LETTER_TABLE_NAME, where, null);
+    }
+
     @Override
     public void truncateBufferedLogs(int maxRecords) {
         int recordSize = getRecordCount();
@@ -158,6 +405,25 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
 
     @Override
     public void onCreate(SupportSQLiteDatabase db) {
+        createLogsTable(db);
+        migrate(db, 1, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onUpgrade(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        migrate(db, oldVersion, newVersion);
+    }
+
+    @Override
+    public void onDowngrade(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        // buffered logs can't be kept safely in a schema this version doesn't know
+        Log.w("PureeDbHelper", "recreate database on onDowngrade(db, " + oldVersion + ", " + newVersion + ")");
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + DEAD_LETTER_TABLE_NAME);
+        onCreate(db);
+    }
+
+    private static void createLogsTable(SupportSQLiteDatabase db) {
         String query = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                 COLUMN_NAME_TYPE + " TEXT," +
@@ -166,9 +432,31 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
         db.execSQL(query);
     }
 
-    @Override
-    public void onUpgrade(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
-        Log.e("PureeDbHelper", "unexpected onUpgrade(db, " + oldVersion + ", " + newVersion + ")");
+    static void migrate(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+        int version = oldVersion;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version > version && migration.version <= newVersion) {
+                if (migration.version != version + 1) {
+                    throw new IllegalStateException("No migration from version " + version + " to " + migration.version);
+                }
+                migration.migrate(db);
+                version = migration.version;
+            }
+        }
+        if (version != newVersion) {
+            throw new IllegalStateException("No migration from version " + version + " to " + newVersion);
+        }
+    }
+
+    abstract static class Migration {
+
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        abstract void migrate(SupportSQLiteDatabase db);
     }
 
     @Override
@@ -186,4 +474,14 @@ public class PureeSQLiteStorage extends SupportSQLiteOpenHelper.Callback impleme
     public void unlock() {
         lock.set(false);
     }
+
+    @Override
+    public boolean lock(String type) {
+        return typeLocks.lock(type);
+    }
+
+    @Override
+    public void unlock(String type) {
+        typeLocks.unlock(type);
+    }
 }
@@ -0,0 +1,257 @@
+package com.cookpad.puree.storage;
+
+import com.cookpad.puree.internal.ProcessName;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A {@link PureeStorage} that appends logs to memory-mapped segment files, one directory per type, and drains
+ * them in order.
+ * <p>
+ * Inserting a log is a copy into mapped memory, and deleting logs only advances a persisted id, so both are
+ * much cheaper than the B-tree updates of {@link PureeSQLiteStorage}. Segment files are removed as a whole once
+ * all of their logs are deleted. Logs written by a process survive its crash; each record has a checksum, so a
+ * record torn by a system crash is discarded when the storage is opened again.
+ * <p>
+ * Logs are always selected in insertion order. Logs deleted out of order are sent again if the process dies
+ * before the logs in front of them are deleted.
+ */
+@ParametersAreNonnullByDefault
+public class PureeSegmentStorage implements PureeBulkStorage, PureeTypeLockStorage, PureePagingStorage,
+        PureeSizeAwareStorage {
+
+    private static final String DIRECTORY_NAME = "puree_segments";
+
+    private static final String TYPE_DIRECTORY_PREFIX = "t";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final Map<String, SegmentQueue> queues = new HashMap<>();
+
+    private final AtomicBoolean lock = new AtomicBoolean(false);
+
+    private final TypeLocks typeLocks = new TypeLocks();
+
+    private int lastId = 0;
+
+    static File directory(Context context) {
+        // do not share segments in multi processes
+        String processName = ProcessName.getAndroidProcessName(context);
+        if (TextUtils.isEmpty(processName)) {
+            return new File(context.getFilesDir(), DIRECTORY_NAME);
+        } else {
+            return new File(context.getFilesDir(), processName + "." + DIRECTORY_NAME);
+        }
+    }
+
+    public PureeSegmentStorage(Context context) {
+        this(directory(context), DEFAULT_SEGMENT_SIZE);
+    }
+
+    public PureeSegmentStorage(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        File[] typeDirectories = directory.listFiles();
+        if (typeDirectories == null) {
+            return;
+        }
+        for (File typeDirectory : typeDirectories) {
+            String type = decodeType(typeDirectory.getName());
+            if (!typeDirectory.isDirectory() || type == null) {
+                continue;
+            }
+            SegmentQueue queue = openQueue(type);
+            lastId = Math.max(lastId, queue.getLastId());
+        }
+    }
+
+    @Override
+    public synchronized void insert(String type, String jsonLog) {
+        append(getQueue(type), jsonLog);
+    }
+
+    @Override
+    public synchronized void insertAll(String type, List<String> jsonLogs) {
+        SegmentQueue queue = getQueue(type);
+        for (String jsonLog : jsonLogs) {
+            append(queue, jsonLog);
+        }
+    }
+
+    private void append(SegmentQueue queue, String jsonLog) {
+        try {
+            queue.append(++lastId, jsonLog.getBytes(Segment.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write a log to " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized Records select(String type, int logsPerRequest) {
+        return selectWithinBytes(type, FIRST_PAGE, logsPerRequest, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized Records selectAfter(String type, int afterId, int logsPerRequest) {
+        return selectWithinBytes(type, afterId, logsPerRequest, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized Records selectWithinBytes(String type, int afterId, int logsPerRequest, int maxBytes) {
+        SegmentQueue queue = queues.get(type);
+        if (queue == null) {
+            return new Records();
+        }
+        return queue.select(logsPerRequest, Math.max(afterId, 0), maxBytes, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized Records selectAll() {
+        return selectAllAfter(FIRST_PAGE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized Records selectAllAfter(int afterId, int limit) {
+        // each type is in order, so the first `limit` logs of all types contain the first `limit` logs overall
+        Records records = new Records();
+        for (SegmentQueue queue : queues.values()) {
+            records.addAll(queue.select(limit, Math.max(afterId, 0), Integer.MAX_VALUE, Integer.MAX_VALUE));
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record lhs, Record rhs) {
+                return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+            }
+        });
+        if (records.size() > limit) {
+            records.subList(limit, records.size()).clear();
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized void delete(Records records) {
+        Map<String, Records> recordsByType = new HashMap<>();
+        for (Record record : records) {
+            Records typeRecords = recordsByType.get(record.getType());
+            if (typeRecords == null) {
+                typeRecords = new Records();
+                recordsByType.put(record.getType(), typeRecords);
+            }
+            typeRecords.add(record);
+        }
+        for (Map.Entry<String, Records> entry : recordsByType.entrySet()) {
+            SegmentQueue queue = queues.get(entry.getKey());
+            if (queue != null) {
+                queue.delete(entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void truncateBufferedLogs(int maxRecords) {
+        int recordSize = 0;
+        for (SegmentQueue queue : queues.values()) {
+            recordSize += queue.getCount();
+        }
+        if (recordSize > maxRecords) {
+            delete(selectAllAfter(FIRST_PAGE, recordSize - maxRecords));
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (SegmentQueue queue : queues.values()) {
+            queue.clear();
+        }
+    }
+
+    @Override
+    public boolean lock() {
+        return lock.compareAndSet(false, true);
+    }
+
+    @Override
+    public void unlock() {
+        lock.set(false);
+    }
+
+    @Override
+    public boolean lock(String type) {
+        return typeLocks.lock(type);
+    }
+
+    @Override
+    public void unlock(String type) {
+        typeLocks.unlock(type);
+    }
+
+    private SegmentQueue getQueue(String type) {
+        SegmentQueue queue = queues.get(type);
+        if (queue == null) {
+            queue = openQueue(type);
+        }
+        return queue;
+    }
+
+    private SegmentQueue openQueue(String type) {
+        try {
+            SegmentQueue queue = new SegmentQueue(type, new File(directory, encodeType(type)), segmentSize);
+            queues.put(type, queue);
+            return queue;
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't open segments of " + type + " in " + directory, e);
+        }
+    }
+
+    /**
+     * Encode a type into a directory name that is safe for any type, e.g. "" or "a/b". The prefix keeps the name of
+     * the empty type from being empty.
+     */
+    static String encodeType(String type) {
+        StringBuilder builder = new StringBuilder(TYPE_DIRECTORY_PREFIX);
+        for (byte b : type.getBytes(Segment.UTF_8)) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    @Nullable
+    static String decodeType(String name) {
+        if (!name.startsWith(TYPE_DIRECTORY_PREFIX)) {
+            return null;
+        }
+        String hex = name.substring(TYPE_DIRECTORY_PREFIX.length());
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return new String(bytes, Segment.UTF_8);
+    }
+}
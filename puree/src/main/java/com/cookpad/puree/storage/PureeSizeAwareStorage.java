@@ -0,0 +1,23 @@
+package com.cookpad.puree.storage;
+
+/**
+ * A {@link PureeStorage} that knows the size of each log, so that it can select batches within a byte budget
+ * without measuring the logs again.
+ *
+ * @see PureeStorages#select(PureeStorage, String, int, int, int)
+ */
+public interface PureeSizeAwareStorage extends PureeStorage {
+
+    /**
+     * Select logs of the type, in the same order as {@link #select(String, int)}, as long as their total size in
+     * UTF-8 bytes fits in {@code maxBytes}. The first log is always selected so that a log larger than the
+     * budget can't block the others forever.
+     *
+     * @param type type of the output.
+     * @param afterId id of the last record of the previous page, or {@link PureePagingStorage#FIRST_PAGE}.
+     * @param logsPerRequest max number of logs.
+     * @param maxBytes max total size of logs in bytes.
+     * @return {@link Records}.
+     */
+    public Records selectWithinBytes(String type, int afterId, int logsPerRequest, int maxBytes);
+}
@@ -0,0 +1,165 @@
+package com.cookpad.puree.storage;
+
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+public class PureeStorages {
+
+    private PureeStorages() {
+    }
+
+    /**
+     * Insert logs in bulk if the storage supports it, or one by one otherwise.
+     *
+     * @param storage {@link PureeStorage}.
+     * @param type type of the output.
+     * @param jsonLogs logs to insert.
+     */
+    public static void insertAll(PureeStorage storage, String type, List<String> jsonLogs) {
+        if (storage instanceof PureeBulkStorage) {
+            ((PureeBulkStorage) storage).insertAll(type, jsonLogs);
+            return;
+        }
+        for (String jsonLog : jsonLogs) {
+            storage.insert(type, jsonLog);
+        }
+    }
+
+    /**
+     * Lock the logs of the type if the storage supports it, or the whole storage otherwise.
+     *
+     * @param storage {@link PureeStorage}.
+     * @param type type of the output.
+     * @return true if the lock has been acquired.
+     */
+    public static boolean lock(PureeStorage storage, String type) {
+        if (storage instanceof PureeTypeLockStorage) {
+            return ((PureeTypeLockStorage) storage).lock(type);
+        }
+        return storage.lock();
+    }
+
+    public static void unlock(PureeStorage storage, String type) {
+        if (storage instanceof PureeTypeLockStorage) {
+            ((PureeTypeLockStorage) storage).unlock(type);
+            return;
+        }
+        storage.unlock();
+    }
+
+    /**
+     * Move records to the dead-letter area if the storage supports it, or delete them otherwise.
+     *
+     * @param storage {@link PureeStorage}.
+     * @param records records that won't be emitted again.
+     */
+    public static void moveToDeadLetters(PureeStorage storage, Records records) {
+        if (storage instanceof PureeDeadLetterStorage) {
+            ((PureeDeadLetterStorage) storage).moveToDeadLetters(records);
+            return;
+        }
+        storage.delete(records);
+    }
+
+    /**
+     * Stream all logs if the storage supports it, or wrap {@link PureeStorage#selectAll()} otherwise.
+     *
+     * @param storage {@link PureeStorage}.
+     * @return {@link RecordStream} that must be closed.
+     */
+    public static RecordStream streamAll(PureeStorage storage) {
+        if (storage instanceof PureeStreamingStorage) {
+            return ((PureeStreamingStorage) storage).streamAll();
+        }
+        return new RecordsStream(storage.selectAll());
+    }
+
+    /**
+     * Select a page of all logs if the storage supports it, or slice {@link PureeStorage#selectAll()} otherwise.
+     *
+     * @param storage {@link PureeStorage}.
+     * @param afterId id of the last record of the previous page, or {@link PureePagingStorage#FIRST_PAGE}.
+     * @param limit max number of logs.
+     * @return {@link Records}.
+     */
+    public static Records selectAllAfter(PureeStorage storage, int afterId, int limit) {
+        if (storage instanceof PureePagingStorage) {
+            return ((PureePagingStorage) storage).selectAllAfter(afterId, limit);
+        }
+        Records all = storage.selectAll();
+        int from = 0;
+        if (afterId != PureePagingStorage.FIRST_PAGE) {
+            while (from < all.size() && all.get(from).getId() != afterId) {
+                from++;
+            }
+            from++;
+        }
+        Records records = new Records();
+        for (int i = from; i < all.size() && records.size() < limit; i++) {
+            records.add(all.get(i));
+        }
+        return records;
+    }
+
+    /**
+     * Select the next batch of logs of the type, within {@code maxBytes} if it is positive.
+     *
+     * @param storage {@link PureeStorage}.
+     * @param type type of the output.
+     * @param afterId id of the last record of the previous page, or {@link PureePagingStorage#FIRST_PAGE}.
+     *                Storages that don't implement {@link PureePagingStorage} only support the first page.
+     * @param logsPerRequest max number of logs.
+     * @param maxBytes max total size of logs in bytes, or 0 for no limit.
+     * @return {@link Records}.
+     */
+    public static Records select(PureeStorage storage, String type, int afterId, int logsPerRequest, int maxBytes) {
+        if (maxBytes > 0 && storage instanceof PureeSizeAwareStorage) {
+            return ((PureeSizeAwareStorage) storage).selectWithinBytes(type, afterId, logsPerRequest, maxBytes);
+        }
+
+        Records records;
+        if (afterId == PureePagingStorage.FIRST_PAGE) {
+            records = storage.select(type, logsPerRequest);
+        } else {
+            records = ((PureePagingStorage) storage).selectAfter(type, afterId, logsPerRequest);
+        }
+        if (maxBytes <= 0) {
+            return records;
+        }
+
+        Records withinBytes = new Records();
+        int totalBytes = 0;
+        for (Record record : records) {
+            totalBytes += byteLength(record.getJsonLog());
+            if (totalBytes > maxBytes && !withinBytes.isEmpty()) {
+                break;
+            }
+            withinBytes.add(record);
+        }
+        return withinBytes;
+    }
+
+    /**
+     * @param jsonLog log.
+     * @return size of the log in UTF-8 bytes, without encoding it.
+     */
+    public static int byteLength(String jsonLog) {
+        int length = jsonLog.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = jsonLog.charAt(i);
+            if (c >= 0x800) {
+                bytes += 2;
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(jsonLog.charAt(i + 1))) {
+                    // 4 bytes for the surrogate pair
+                    i++;
+                }
+            } else if (c >= 0x80) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+}
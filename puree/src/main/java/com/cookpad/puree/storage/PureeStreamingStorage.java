@@ -0,0 +1,16 @@
+package com.cookpad.puree.storage;
+
+/**
+ * A {@link PureeStorage} that can stream all logs without loading them into memory at once.
+ *
+ * @see PureeStorages#streamAll(PureeStorage)
+ */
+public interface PureeStreamingStorage extends PureeStorage {
+
+    /**
+     * Stream all logs in the same order as {@link #selectAll()}.
+     *
+     * @return {@link RecordStream} that must be closed.
+     */
+    public RecordStream streamAll();
+}
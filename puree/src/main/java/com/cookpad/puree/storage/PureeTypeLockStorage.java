@@ -0,0 +1,13 @@
+package com.cookpad.puree.storage;
+
+/**
+ * A {@link PureeStorage} that locks the logs of each output type separately, so that outputs can flush
+ * concurrently without waiting for each other.
+ *
+ * @see PureeStorages#lock(PureeStorage, String)
+ */
+public interface PureeTypeLockStorage extends PureeStorage {
+
+    public boolean lock(String type);
+    public void unlock(String type);
+}
@@ -0,0 +1,13 @@
+package com.cookpad.puree.storage;
+
+import java.io.Closeable;
+
+/**
+ * A read-once view of records that are loaded from the storage while iterating, so that large buffers can be
+ * read in bounded memory. {@link #iterator()} can be called only once, and the stream must be closed.
+ */
+public interface RecordStream extends Iterable<Record>, Closeable {
+
+    @Override
+    public void close();
+}
@@ -1,5 +1,6 @@
 package com.cookpad.puree.storage;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,11 +18,31 @@ public class Records extends ArrayList<Record> {
         return builder.substring(0, builder.length() - 1);
     }
 
+    /**
+     * @return a new list of the logs, which the caller may modify.
+     */
     public List<String> getJsonLogs() {
-        List<String> jsonLogs = new ArrayList<>();
+        List<String> jsonLogs = new ArrayList<>(size());
         for (Record record : this) {
             jsonLogs.add(record.getJsonLog());
         }
         return jsonLogs;
     }
+
+    /**
+     * @return read-only view of the logs, backed by this records, for callers that only read them.
+     */
+    public List<String> getJsonLogsView() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return Records.this.get(index).getJsonLog();
+            }
+
+            @Override
+            public int size() {
+                return Records.this.size();
+            }
+        };
+    }
 }
@@ -0,0 +1,25 @@
+package com.cookpad.puree.storage;
+
+import java.util.Iterator;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+class RecordsStream implements RecordStream {
+
+    private final Records records;
+
+    RecordsStream(Records records) {
+        this.records = records;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return records.iterator();
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
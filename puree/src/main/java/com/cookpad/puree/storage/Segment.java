@@ -0,0 +1,196 @@
+package com.cookpad.puree.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A memory-mapped file of length-prefixed records, used by {@link PureeSegmentStorage}.
+ * <p>
+ * Each record is laid out as {@code [length][id][crc][payload]}, where {@code crc} covers the length, the id and
+ * the payload. Record ids are positive, so a zero id marks the end of the written records. A record whose
+ * checksum doesn't match is treated as a torn write: it and everything after it are discarded on open.
+ */
+@ParametersAreNonnullByDefault
+class Segment {
+
+    static final String SUFFIX = ".seg";
+
+    static final int HEADER_SIZE = 12;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    final long number;
+
+    final File file;
+
+    private final MappedByteBuffer buffer;
+
+    private int writePosition = 0;
+
+    private int firstId = 0;
+
+    private int lastId = 0;
+
+    private Segment(long number, File file, MappedByteBuffer buffer) {
+        this.number = number;
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    static Segment create(File directory, long number, int capacity) throws IOException {
+        File file = new File(directory, fileName(number));
+        return new Segment(number, file, map(file, capacity));
+    }
+
+    /**
+     * Open an existing segment and find the end of its valid records.
+     */
+    static Segment open(File file, long number) throws IOException {
+        Segment segment = new Segment(number, file, map(file, (int) file.length()));
+        segment.recover();
+        return segment;
+    }
+
+    static String fileName(long number) {
+        String digits = Long.toString(number);
+        StringBuilder builder = new StringBuilder();
+        for (int i = digits.length(); i < 19; i++) {
+            builder.append('0');
+        }
+        return builder.append(digits).append(SUFFIX).toString();
+    }
+
+    private static MappedByteBuffer map(File file, int capacity) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (randomAccessFile.length() < capacity) {
+                randomAccessFile.setLength(capacity);
+            }
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void recover() {
+        int position = 0;
+        while (isValid(position)) {
+            int id = idAt(position);
+            if (firstId == 0) {
+                firstId = id;
+            }
+            lastId = id;
+            position = nextPosition(position);
+        }
+        writePosition = position;
+
+        // zero a torn record so that its leftovers can't be read as a record after shorter ones overwrite it
+        int tornLength = position + HEADER_SIZE <= buffer.capacity() ? Math.max(0, buffer.getInt(position)) : 0;
+        int end = (int) Math.min(buffer.capacity(), (long) position + HEADER_SIZE + tornLength);
+        for (int i = position; i < end; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    private boolean isValid(int position) {
+        if (position + HEADER_SIZE > buffer.capacity()) {
+            return false;
+        }
+        int length = buffer.getInt(position);
+        int id = buffer.getInt(position + 4);
+        if (id <= 0 || length < 0 || position + HEADER_SIZE + length > buffer.capacity()) {
+            return false;
+        }
+        return buffer.getInt(position + 8) == checksum(id, payloadAt(position, length));
+    }
+
+    boolean hasRoomFor(int length) {
+        return writePosition + HEADER_SIZE + length <= buffer.capacity();
+    }
+
+    void append(int id, byte[] payload) {
+        int position = writePosition;
+        buffer.putInt(position, payload.length);
+        buffer.putInt(position + 8, checksum(id, payload));
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + HEADER_SIZE);
+        view.put(payload);
+        // written last, so that a record without its id is seen as the end of the segment
+        buffer.putInt(position + 4, id);
+
+        if (firstId == 0) {
+            firstId = id;
+        }
+        lastId = id;
+        writePosition = position + HEADER_SIZE + payload.length;
+    }
+
+    boolean hasRecordAt(int position) {
+        return position < writePosition;
+    }
+
+    int idAt(int position) {
+        return buffer.getInt(position + 4);
+    }
+
+    int lengthAt(int position) {
+        return buffer.getInt(position);
+    }
+
+    String jsonLogAt(int position) {
+        return new String(payloadAt(position, lengthAt(position)), UTF_8);
+    }
+
+    int nextPosition(int position) {
+        return position + HEADER_SIZE + lengthAt(position);
+    }
+
+    int getFirstId() {
+        return firstId;
+    }
+
+    int getLastId() {
+        return lastId;
+    }
+
+    boolean isEmpty() {
+        return writePosition == 0;
+    }
+
+    void delete() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private byte[] payloadAt(int position, int length) {
+        byte[] payload = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + HEADER_SIZE);
+        view.get(payload);
+        return payload;
+    }
+
+    private static int checksum(int id, byte[] payload) {
+        CRC32 crc = new CRC32();
+        updateInt(crc, payload.length);
+        updateInt(crc, id);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void updateInt(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+}
@@ -0,0 +1,246 @@
+package com.cookpad.puree.storage;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The segments of one type in {@link PureeSegmentStorage}.
+ * <p>
+ * Logs are acknowledged by advancing a persisted id: every record of the type whose id is not greater than it
+ * has been deleted. Records deleted ahead of it are kept in memory until the id can advance over them, and are
+ * sent again if the process dies before that. A segment is removed once all of its records are acknowledged.
+ */
+@ParametersAreNonnullByDefault
+class SegmentQueue {
+
+    private static final String ACK_FILE_NAME = "ack";
+
+    final String type;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private final Set<Integer> deletedIds = new HashSet<>();
+
+    private final MappedByteBuffer ackBuffer;
+
+    private int ackedId;
+
+    private int count = 0;
+
+    private Segment headSegment;
+
+    private int headPosition;
+
+    private int cachedId = 0;
+
+    private Segment cachedSegment;
+
+    private int cachedPosition;
+
+    SegmentQueue(String type, File directory, int segmentSize) throws IOException {
+        this.type = type;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        RandomAccessFile ackFile = new RandomAccessFile(new File(directory, ACK_FILE_NAME), "rw");
+        try {
+            ackFile.setLength(8);
+            ackBuffer = ackFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        } finally {
+            ackFile.close();
+        }
+        int id = ackBuffer.getInt(0);
+        // a torn or missing ack sends the type again from the beginning
+        ackedId = (ackBuffer.getInt(4) == ~id) ? id : 0;
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(Segment.SUFFIX);
+            }
+        });
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                long number = Long.parseLong(name.substring(0, name.length() - Segment.SUFFIX.length()));
+                segments.add(Segment.open(file, number));
+            }
+        }
+
+        headSegment = segments.isEmpty() ? null : segments.get(0);
+        headPosition = 0;
+        skipAcknowledged();
+        reclaim();
+
+        int segmentIndex = headSegment == null ? segments.size() : segments.indexOf(headSegment);
+        int position = headPosition;
+        while (segmentIndex < segments.size()) {
+            Segment segment = segments.get(segmentIndex);
+            if (!segment.hasRecordAt(position)) {
+                segmentIndex++;
+                position = 0;
+                continue;
+            }
+            if (segment.idAt(position) > ackedId) {
+                count++;
+            }
+            position = segment.nextPosition(position);
+        }
+    }
+
+    int getLastId() {
+        int lastId = ackedId;
+        for (Segment segment : segments) {
+            lastId = Math.max(lastId, segment.getLastId());
+        }
+        return lastId;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    void append(int id, byte[] payload) throws IOException {
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || !segment.hasRoomFor(payload.length)) {
+            long number = segment == null ? 0 : segment.number + 1;
+            segment = Segment.create(directory, number, Math.max(segmentSize, Segment.HEADER_SIZE + payload.length));
+            segments.add(segment);
+            if (headSegment == null) {
+                headSegment = segment;
+                headPosition = 0;
+            }
+        }
+        segment.append(id, payload);
+        count++;
+    }
+
+    /**
+     * Select live records in order.
+     *
+     * @param limit max number of records.
+     * @param afterId select records whose id is greater than this, or 0 to select from the head.
+     * @param maxBytes max total size of payloads; the first record is always selected.
+     * @param maxId select records whose id is not greater than this.
+     */
+    Records select(int limit, int afterId, int maxBytes, int maxId) {
+        Records records = new Records();
+        Segment segment = headSegment;
+        int position = headPosition;
+        if (afterId != 0 && afterId == cachedId && segments.contains(cachedSegment)) {
+            segment = cachedSegment;
+            position = cachedPosition;
+        }
+
+        long totalBytes = 0;
+        int segmentIndex = segment == null ? segments.size() : segments.indexOf(segment);
+        while (segmentIndex < segments.size() && records.size() < limit) {
+            segment = segments.get(segmentIndex);
+            if (!segment.hasRecordAt(position)) {
+                segmentIndex++;
+                position = 0;
+                continue;
+            }
+            int id = segment.idAt(position);
+            if (id > maxId) {
+                break;
+            }
+            if (id > afterId && id > ackedId && !deletedIds.contains(id)) {
+                totalBytes += segment.lengthAt(position);
+                if (totalBytes > maxBytes && !records.isEmpty()) {
+                    break;
+                }
+                records.add(new Record(id, type, segment.jsonLogAt(position)));
+                position = segment.nextPosition(position);
+                // the next page usually starts right after this one
+                cachedId = id;
+                cachedSegment = segment;
+                cachedPosition = position;
+            } else {
+                position = segment.nextPosition(position);
+            }
+        }
+        return records;
+    }
+
+    void delete(Records records) {
+        for (Record record : records) {
+            int id = record.getId();
+            if (id > ackedId && deletedIds.add(id)) {
+                count--;
+            }
+        }
+        int previousAckedId = ackedId;
+        skipAcknowledged();
+        if (ackedId != previousAckedId) {
+            ackBuffer.putLong(0, ((long) ackedId << 32) | (~ackedId & 0xffffffffL));
+            reclaim();
+        }
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        deletedIds.clear();
+        headSegment = null;
+        headPosition = 0;
+        cachedId = 0;
+        cachedSegment = null;
+        count = 0;
+    }
+
+    private void skipAcknowledged() {
+        int segmentIndex = headSegment == null ? segments.size() : segments.indexOf(headSegment);
+        while (segmentIndex < segments.size()) {
+            Segment segment = segments.get(segmentIndex);
+            if (!segment.hasRecordAt(headPosition)) {
+                if (segmentIndex == segments.size() - 1) {
+                    break;
+                }
+                segmentIndex++;
+                headPosition = 0;
+                continue;
+            }
+            int id = segment.idAt(headPosition);
+            if (id <= ackedId) {
+                headPosition = segment.nextPosition(headPosition);
+            } else if (deletedIds.remove(id)) {
+                ackedId = id;
+                headPosition = segment.nextPosition(headPosition);
+            } else {
+                break;
+            }
+        }
+        headSegment = segmentIndex < segments.size() ? segments.get(segmentIndex) : null;
+    }
+
+    /**
+     * Delete segments before the head; they have no live record.
+     */
+    private void reclaim() {
+        while (!segments.isEmpty() && segments.get(0) != headSegment) {
+            segments.remove(0).delete();
+        }
+    }
+}
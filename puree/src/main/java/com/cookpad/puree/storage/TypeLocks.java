@@ -0,0 +1,41 @@
+package com.cookpad.puree.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Locks for {@link PureeTypeLockStorage} implementations, one per type.
+ */
+@ParametersAreNonnullByDefault
+class TypeLocks {
+
+    private final ConcurrentMap<String, AtomicBoolean> locks = new ConcurrentHashMap<>();
+
+    boolean lock(String type) {
+        return get(type).compareAndSet(false, true);
+    }
+
+    void unlock(String type) {
+        get(type).set(false);
+    }
+
+    boolean isLocked(String type) {
+        AtomicBoolean lock = locks.get(type);
+        return lock != null && lock.get();
+    }
+
+    private AtomicBoolean get(String type) {
+        AtomicBoolean lock = locks.get(type);
+        if (lock == null) {
+            AtomicBoolean newLock = new AtomicBoolean(false);
+            lock = locks.putIfAbsent(type, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+}
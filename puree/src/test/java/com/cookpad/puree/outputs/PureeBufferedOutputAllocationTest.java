@@ -0,0 +1,127 @@
+package com.cookpad.puree.outputs;
+
+import com.cookpad.puree.PureeConfiguration;
+import com.cookpad.puree.PureeLogger;
+import com.cookpad.puree.PureeSerializer;
+import com.cookpad.puree.async.AsyncResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures allocations with the JVM's thread allocation counter, which Android doesn't have, so this runs as a
+ * local unit test only.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PureeBufferedOutputAllocationTest {
+
+    static class PvLog {
+    }
+
+    @ParametersAreNonnullByDefault
+    static class DrainingBufferedOutput extends PureeBufferedOutput {
+
+        @Nonnull
+        @Override
+        public String type() {
+            return "draining_output";
+        }
+
+        @Nonnull
+        @Override
+        public OutputConfiguration configure(OutputConfiguration conf) {
+            // logs are written to the storage while they are sent, but not flushed
+            conf.setFlushIntervalMillis(60 * 1000);
+            conf.setInsertWindowMillis(10);
+            conf.setInsertBatchSize(1000);
+            conf.setMaxQueuedLogs(10000);
+            return conf;
+        }
+
+        @Override
+        public void emit(List<String> jsonLogs, AsyncResult result) {
+            result.success();
+        }
+    }
+
+    com.sun.management.ThreadMXBean allocationCounter;
+
+    PureeLogger logger;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        allocationCounter = (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue(allocationCounter.isThreadAllocatedMemorySupported());
+        allocationCounter.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        if (logger != null) {
+            logger.discardBufferedLogs();
+        }
+    }
+
+    @Test
+    public void sendWithoutAllocationWhileDraining() throws Exception {
+        final String payload = "{\"name\":\"pv\"}";
+        DrainingBufferedOutput output = new DrainingBufferedOutput();
+        logger = new PureeConfiguration.Builder(ApplicationProvider.getApplicationContext())
+                .register(PvLog.class, output)
+                .pureeSerializer(new PureeSerializer() {
+                    @Override
+                    public String serialize(Object log) {
+                        return payload;
+                    }
+                })
+                .build()
+                .createPureeLogger();
+        logger.discardBufferedLogs();
+        PvLog log = new PvLog();
+
+        // the first sends resolve the route and start the insert and flush timers
+        send(log, 10000);
+        int insertedBefore = output.backlogCount.get();
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationCounter.getThreadAllocatedBytes(threadId);
+        send(log, 10000);
+        long allocated = allocationCounter.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // the drain kept writing to the storage during the measurement
+        assertThat(output.backlogCount.get(), is(greaterThan(insertedBefore)));
+        assertThat(output.getDroppedLogCount(), is(0L));
+        // a few bytes of slack for the measurement itself, far less than one byte per send
+        assertThat(allocated, is(lessThan(1024L)));
+    }
+
+    /**
+     * Send at a steady pace, fewer logs per insert window than an insert batch.
+     */
+    private void send(PvLog log, int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            logger.send(log);
+            if (i % 10 == 9) {
+                Thread.sleep(1);
+            }
+        }
+    }
+}
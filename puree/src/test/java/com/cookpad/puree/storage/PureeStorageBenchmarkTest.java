@@ -0,0 +1,107 @@
+package com.cookpad.puree.storage;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Runs the same workload on {@link PureeSQLiteStorage} and {@link PureeSegmentStorage}: logs are inserted in
+ * batches like the write-behind queue does, then selected and deleted a request at a time like a flush does. The
+ * throughput of each step is printed; it depends on the host, so nothing is asserted about it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PureeStorageBenchmarkTest {
+
+    private static final String TYPE = "benchmark";
+
+    // a serialized BenchmarkLog of the demo
+    private static final String JSON_LOG = "{\"page\":\"foo\",\"label\":\"bar\"}";
+
+    private static final int LOG_COUNT = 20000;
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final int WARM_UP_RUNS = 3;
+
+    private static final int MEASURED_RUNS = 5;
+
+    @Test
+    public void sqliteStorage() {
+        Context context = ApplicationProvider.getApplicationContext();
+        System.out.println(benchmark("PureeSQLiteStorage", new PureeSQLiteStorage(context)));
+    }
+
+    @Test
+    public void segmentStorage() {
+        Context context = ApplicationProvider.getApplicationContext();
+        File directory = new File(context.getFilesDir(), "puree_segments_benchmark");
+        System.out.println(benchmark("PureeSegmentStorage",
+                new PureeSegmentStorage(directory, PureeSegmentStorage.DEFAULT_SEGMENT_SIZE)));
+    }
+
+    /**
+     * @return throughput of each step in logs per second over the measured runs, after the warm-up runs.
+     */
+    static String benchmark(String name, PureeStorage storage) {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            run(storage);
+        }
+        long[] nanos = new long[3];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long[] runNanos = run(storage);
+            for (int step = 0; step < nanos.length; step++) {
+                nanos[step] += runNanos[step];
+            }
+        }
+        return String.format(Locale.US, "%s: insert %d logs/s, select %d logs/s, delete %d logs/s", name,
+                logsPerSecond(nanos[0]), logsPerSecond(nanos[1]), logsPerSecond(nanos[2]));
+    }
+
+    private static long[] run(PureeStorage storage) {
+        storage.clear();
+        List<String> batch = Collections.nCopies(BATCH_SIZE, JSON_LOG);
+
+        long insertStart = System.nanoTime();
+        for (int i = 0; i < LOG_COUNT / BATCH_SIZE; i++) {
+            PureeStorages.insertAll(storage, TYPE, batch);
+        }
+        long insertNanos = System.nanoTime() - insertStart;
+
+        long selectNanos = 0;
+        long deleteNanos = 0;
+        int selected = 0;
+        while (true) {
+            long selectStart = System.nanoTime();
+            Records records = storage.select(TYPE, BATCH_SIZE);
+            selectNanos += System.nanoTime() - selectStart;
+            if (records.isEmpty()) {
+                break;
+            }
+            selected += records.size();
+
+            long deleteStart = System.nanoTime();
+            storage.delete(records);
+            deleteNanos += System.nanoTime() - deleteStart;
+        }
+        assertThat(selected, is(LOG_COUNT));
+        storage.clear();
+        return new long[]{insertNanos, selectNanos, deleteNanos};
+    }
+
+    private static long logsPerSecond(long nanos) {
+        return LOG_COUNT * MEASURED_RUNS * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos);
+    }
+}